@@ -0,0 +1,27 @@
+package com.hmdp.annotation;
+
+/**
+ * @HmCacheable使用的防缓存击穿策略，对应CacheClient中的各个查询方法
+ */
+public enum CacheStrategy {
+    /**
+     * 缓存空值防穿透，不处理击穿，对应queryWithPassThrough
+     */
+    PASS_THROUGH,
+    /**
+     * 互斥锁重建，对应queryWithMutex
+     */
+    MUTEX,
+    /**
+     * 逻辑过期，过期后返回旧数据并异步重建，对应queryWithLogicalExpire
+     */
+    LOGICAL_EXPIRE,
+    /**
+     * 逻辑过期 + 概率提前刷新，对应queryWithEarlyRefresh
+     */
+    EARLY_REFRESH,
+    /**
+     * 按访问热度自动选择：冷数据PASS_THROUGH，温数据MUTEX，热点LOGICAL_EXPIRE，对应queryAdaptive
+     */
+    ADAPTIVE
+}
@@ -0,0 +1,26 @@
+package com.hmdp.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 方法正常返回后删除缓存（包括所有节点的本地缓存），存在事务时在事务提交之后删除
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmCacheEvict {
+
+    /**
+     * key前缀，一般使用RedisConstants中的常量
+     */
+    String prefix();
+
+    /**
+     * 拼接在前缀后面的部分，SpEL表达式，默认是第一个参数
+     */
+    String key() default "#p0";
+}
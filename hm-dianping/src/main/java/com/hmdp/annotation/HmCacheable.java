@@ -0,0 +1,48 @@
+package com.hmdp.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 声明方法的返回值通过CacheClient缓存，缓存的key为 prefix + key表达式的值。
+ * 方法的返回值必须是实体对象或者实体的List（需要指定elementType），方法返回null时按不存在处理。
+ * 和@Transactional一样基于代理实现，类内部直接调用不会生效，需要通过AopContext.currentProxy()调用
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmCacheable {
+
+    /**
+     * key前缀，一般使用RedisConstants中的常量
+     */
+    String prefix();
+
+    /**
+     * 拼接在前缀后面的部分，SpEL表达式，默认是第一个参数
+     */
+    String key() default "#p0";
+
+    /**
+     * 过期时间，没有为prefix配置过期策略时使用
+     */
+    long ttl() default 30L;
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    CacheStrategy strategy() default CacheStrategy.MUTEX;
+
+    /**
+     * 是否同时使用本地一级缓存
+     */
+    boolean local() default false;
+
+    /**
+     * 方法返回List时的元素类型
+     */
+    Class<?> elementType() default Object.class;
+}
@@ -0,0 +1,134 @@
+package com.hmdp.aspect;
+
+import com.hmdp.annotation.HmCacheEvict;
+import com.hmdp.annotation.HmCacheable;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LocalCache;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * @HmCacheable、@HmCacheEvict的实现，把方法调用转换为CacheClient对应策略的查询，方法本身作为查询数据库的逻辑
+ */
+@Slf4j
+@Aspect
+@Component
+public class HmCacheAspect {
+
+    private final CacheClient cacheClient;
+
+    private final LocalCache localCache;
+
+    private final SpelExpressionParser parser = new SpelExpressionParser();
+
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+    /**
+     * 解析后的key表达式
+     */
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    public HmCacheAspect(CacheClient cacheClient, LocalCache localCache) {
+        this.cacheClient = cacheClient;
+        this.localCache = localCache;
+    }
+
+    @Around("@annotation(cacheable)")
+    public Object cacheable(ProceedingJoinPoint pjp, HmCacheable cacheable) {
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        Object id = keyOf(cacheable.key(), pjp, method);
+        if (cacheable.local()) {
+            localCache.enable(cacheable.prefix());
+        }
+        //1.确定缓存对象的类型，List按数组缓存，JSON中是数组，读取时可以还原元素类型
+        Class<?> returnType = method.getReturnType();
+        boolean isList = List.class.isAssignableFrom(returnType);
+        if (isList && cacheable.elementType() == Object.class) {
+            throw new IllegalStateException("@HmCacheable方法返回List时需要指定elementType：" + method);
+        }
+        Class<?> type = isList ? Array.newInstance(cacheable.elementType(), 0).getClass() : returnType;
+        //2.方法本身就是查询数据库的逻辑
+        Function<Object, Object> dbFallback = ignored -> {
+            Object result = proceed(pjp);
+            return isList && result != null ? ((List<?>) result).toArray(
+                    (Object[]) Array.newInstance(cacheable.elementType(), 0)) : result;
+        };
+        Object cached = query(cacheable, id, type, dbFallback);
+        if (isList) {
+            return cached == null ? null : new ArrayList<>(Arrays.asList((Object[]) cached));
+        }
+        return cached;
+    }
+
+    @Around("@annotation(cacheEvict)")
+    public Object cacheEvict(ProceedingJoinPoint pjp, HmCacheEvict cacheEvict) throws Throwable {
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        Object result = pjp.proceed();
+        String key = cacheEvict.prefix() + keyOf(cacheEvict.key(), pjp, method);
+        //事务提交之后再删除，避免删除后、提交前有请求把旧数据重新写入缓存
+        cacheClient.evictAfterCommit(key);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object query(HmCacheable cacheable, Object id, Class<?> returnType, Function<Object, Object> dbFallback) {
+        Class<Object> type = (Class<Object>) returnType;
+        String prefix = cacheable.prefix();
+        Long ttl = cacheable.ttl();
+        switch (cacheable.strategy()) {
+            case PASS_THROUGH:
+                return cacheClient.queryWithPassThrough(prefix, id, type, dbFallback, ttl, cacheable.unit());
+            case LOGICAL_EXPIRE:
+                return cacheClient.queryWithLogicalExpire(prefix, id, type, dbFallback, ttl, cacheable.unit());
+            case EARLY_REFRESH:
+                return cacheClient.queryWithEarlyRefresh(prefix, id, type, dbFallback, ttl, cacheable.unit());
+            case ADAPTIVE:
+                return cacheClient.queryAdaptive(prefix, id, type, dbFallback, ttl, cacheable.unit(), dbFallback);
+            case MUTEX:
+            default:
+                //等待重建超时后直接执行方法作为降级
+                return cacheClient.queryWithMutex(prefix, id, type, dbFallback, ttl, cacheable.unit(), dbFallback);
+        }
+    }
+
+    private Object keyOf(String key, ProceedingJoinPoint pjp, Method method) {
+        Expression expression = expressions.computeIfAbsent(key, parser::parseExpression);
+        MethodBasedEvaluationContext context = new MethodBasedEvaluationContext(
+                pjp.getTarget(), method, pjp.getArgs(), parameterNameDiscoverer);
+        Object value = expression.getValue(context);
+        if (value == null) {
+            throw new IllegalArgumentException("缓存key为null：" + method + "，key=" + key);
+        }
+        return value;
+    }
+
+    /**
+     * 执行被代理的方法，可能在重建缓存的线程中执行，每次调用都会重新执行一遍方法
+     */
+    private static Object proceed(ProceedingJoinPoint pjp) {
+        try {
+            return pjp.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.hmdp.config;
+
+import com.hmdp.annotation.CacheStrategy;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 缓存相关的配置项，对应application.yaml中 hmdp.cache 下的配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache")
+public class CacheProperties {
+
+    /**
+     * 互斥锁方案中，缓存未命中的线程等待重建结果的最长时间，超时后走降级逻辑
+     */
+    private Duration mutexWait = Duration.ofSeconds(3);
+
+    /**
+     * key前缀 -> 编解码器名称（json、binary），没有配置的前缀使用json
+     */
+    private Map<String, String> codecs = new HashMap<>();
+
+    /**
+     * key前缀 -> 过期策略，覆盖CachePolicies中按RedisConstants注册的默认策略，只需要配置要修改的项
+     */
+    private Map<String, Policy> policies = new HashMap<>();
+
+    /**
+     * 写入时校验版本号的key前缀：数据修改时递增版本号，查询数据库之后版本号已经变化的重建结果不会写入缓存
+     */
+    private List<String> versionedPrefixes = new ArrayList<>();
+
+    /**
+     * 本地一级缓存（L1）配置
+     */
+    private Local local = new Local();
+
+    /**
+     * 布隆过滤器配置
+     */
+    private Bloom bloom = new Bloom();
+
+    /**
+     * 异步重建缓存的线程池配置
+     */
+    private Rebuild rebuild = new Rebuild();
+
+    /**
+     * 逻辑过期的提前刷新（XFetch）配置
+     */
+    private EarlyRefresh earlyRefresh = new EarlyRefresh();
+
+    /**
+     * 启动时的缓存预热配置
+     */
+    private Warmup warmup = new Warmup();
+
+    /**
+     * 热点key探测配置
+     */
+    private HotKey hotKey = new HotKey();
+
+    /**
+     * 缓存本地消息表的投递配置
+     */
+    private Outbox outbox = new Outbox();
+
+    /**
+     * 逻辑过期key的后台提前刷新配置
+     */
+    private RefreshAhead refreshAhead = new RefreshAhead();
+
+    /**
+     * 按访问热度自动选择缓存策略的配置
+     */
+    private Adaptive adaptive = new Adaptive();
+
+    @Data
+    public static class Policy {
+        /**
+         * 基础过期时间
+         */
+        private Duration ttl;
+        /**
+         * 随机抖动的范围，实际过期时间 = 基础过期时间 + [0, jitter]之间的随机值，避免同一批key同时过期
+         */
+        private Duration jitter;
+        /**
+         * 空值（防穿透）的过期时间
+         */
+        private Duration nullTtl;
+        /**
+         * 逻辑过期方案中的逻辑过期时间，同样会加上随机抖动
+         */
+        private Duration logicalExpire;
+    }
+
+    @Data
+    public static class Local {
+        /**
+         * 本地缓存最多保存的条目数，超过后按LRU淘汰
+         */
+        private int maximumSize = 10000;
+        /**
+         * 本地缓存条目的最长存活时间，作为跨节点失效通知丢失时的兜底
+         */
+        private Duration ttl = Duration.ofSeconds(60);
+        /**
+         * 开启本地缓存的key前缀，只有以这些前缀开头的key才会进入一级缓存
+         */
+        private List<String> prefixes = new ArrayList<>();
+    }
+
+    @Data
+    public static class Bloom {
+        /**
+         * 是否启用布隆过滤器防止缓存穿透
+         */
+        private boolean enabled = true;
+        /**
+         * 期望的误判率
+         */
+        private double fpp = 0.001;
+        /**
+         * 预留的容量倍数，容量 = 当前数据量 * headroom，给两次重建之间的新增数据留出空间
+         */
+        private double headroom = 2.0;
+        /**
+         * 最小容量
+         */
+        private long minExpectedInsertions = 10000;
+        /**
+         * 定期重建的间隔
+         */
+        private Duration rebuildInterval = Duration.ofHours(1);
+    }
+
+    @Data
+    public static class Warmup {
+        /**
+         * 是否在启动时预热缓存
+         */
+        private boolean enabled = true;
+        /**
+         * 每次从tb_shop中按id游标读取的条数，同时也是每次pipeline写入的条数
+         */
+        private int batchSize = 1000;
+        /**
+         * 并行写入redis的线程数
+         */
+        private int workers = 4;
+        /**
+         * 店铺是否按逻辑过期格式写入，使用queryWithLogicalExpire、queryWithEarlyRefresh时需要开启
+         */
+        private boolean logicalExpire = false;
+        /**
+         * 启动时最多等待预热的时间，超时后节点开始接收流量，剩余的预热在后台继续进行
+         */
+        private Duration timeout = Duration.ofSeconds(60);
+    }
+
+    @Data
+    public static class HotKey {
+        /**
+         * 是否开启热点key探测
+         */
+        private boolean enabled = true;
+        /**
+         * 统计访问频率的滑动窗口长度
+         */
+        private Duration window = Duration.ofSeconds(10);
+        /**
+         * 窗口切分的桶数，窗口每隔 window / buckets 滑动一次
+         */
+        private int buckets = 10;
+        /**
+         * 单个节点上的QPS超过该值时判定为热点key
+         */
+        private long threshold = 200;
+        /**
+         * 热点key的QPS降到 threshold * demoteRatio 以下时取消热点
+         */
+        private double demoteRatio = 0.5;
+        /**
+         * 热点key本地副本的存活时间，数据修改后最多有这么长时间的不一致（失效通知丢失时）
+         */
+        private Duration replicaTtl = Duration.ofSeconds(5);
+        /**
+         * 最多同时存在的热点key个数
+         */
+        private int maxHotKeys = 100;
+        /**
+         * sketch每行的计数器个数
+         */
+        private int sketchWidth = 4096;
+    }
+
+    @Data
+    public static class Rebuild {
+        /**
+         * 重建缓存的线程数
+         */
+        private int threads = 10;
+        /**
+         * 等待重建的任务数上限，队列满后拒绝新的重建，请求继续返回旧数据
+         */
+        private int queueCapacity = 1000;
+    }
+
+    @Data
+    public static class EarlyRefresh {
+        /**
+         * 提前刷新的激进程度，大于1更早刷新，小于1更接近过期时才刷新，1为论文推荐的默认值
+         */
+        private double beta = 1.0;
+    }
+
+    @Data
+    public static class Adaptive {
+        /**
+         * 单个节点上的QPS达到该值时判定为温数据，使用互斥锁方案，低于该值的冷数据使用缓存空值的普通方案；
+         * QPS达到 hot-key.threshold 的热点使用逻辑过期方案，由后台提前刷新
+         */
+        private long warmQps = 1;
+        /**
+         * key前缀 -> 固定使用的策略，配置了的前缀不再按热度选择
+         */
+        private Map<String, CacheStrategy> overrides = new HashMap<>();
+    }
+
+    @Data
+    public static class RefreshAhead {
+        /**
+         * 是否开启后台提前刷新
+         */
+        private boolean enabled = true;
+        /**
+         * 检查即将过期key的间隔
+         */
+        private Duration interval = Duration.ofSeconds(1);
+        /**
+         * 逻辑过期时间在该窗口之内的key会被提前刷新
+         */
+        private Duration window = Duration.ofSeconds(60);
+        /**
+         * 每次最多领取的key个数，同一个前缀的key通过一次批量查询刷新
+         */
+        private int batchSize = 100;
+        /**
+         * 领取后的租约，刷新失败的key在租约到期后被重新领取
+         */
+        private Duration lease = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Outbox {
+        /**
+         * 每批投递的消息数
+         */
+        private int batchSize = 500;
+        /**
+         * 轮询消息表的间隔，事务提交后会立即唤醒，轮询只是兜底
+         */
+        private Duration pollInterval = Duration.ofSeconds(1);
+        /**
+         * 第一次重试前的暂停时间，之后每次翻倍
+         */
+        private Duration retryBackoff = Duration.ofSeconds(1);
+        /**
+         * 重试暂停时间的上限，消息会一直重试直到投递成功
+         */
+        private Duration maxBackoff = Duration.ofMinutes(1);
+        /**
+         * 延迟双删中第二次删除的延迟，应大于一次缓存重建（查询数据库并写入redis）的耗时
+         */
+        private Duration redeleteDelay = Duration.ofMillis(500);
+    }
+}
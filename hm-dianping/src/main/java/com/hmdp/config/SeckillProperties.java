@@ -0,0 +1,138 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 秒杀相关的配置项，对应application.yaml中 hmdp.seckill 下的配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.seckill")
+public class SeckillProperties {
+
+    /**
+     * 订单消息队列的分区数，按优惠券id取模分配到 stream.orders:0 ~ stream.orders:{n-1}，为1时只使用 stream.orders
+     */
+    private int partitions = 1;
+
+    /**
+     * 本地售罄标记的存活时间，到期后重新执行一次秒杀脚本确认库存，补充库存的通知丢失时最多影响这么长时间
+     */
+    private Duration soldOutTtl = Duration.ofSeconds(10);
+
+    /**
+     * 本地保存的秒杀券开始、结束时间的有效期，到期后从redis重新加载；下单时最终以seckill.lua中的检查为准
+     */
+    private Duration windowCacheTtl = Duration.ofSeconds(60);
+
+    /**
+     * 订单消息队列消费者配置
+     */
+    private Consumer consumer = new Consumer();
+
+    /**
+     * pending-list恢复配置
+     */
+    private Recovery recovery = new Recovery();
+
+    /**
+     * 秒杀库存租借配置
+     */
+    private Lease lease = new Lease();
+
+    /**
+     * 秒杀库存分桶配置
+     */
+    private Buckets buckets = new Buckets();
+
+    /**
+     * 订单处理状态配置
+     */
+    private Status status = new Status();
+
+    @Data
+    public static class Consumer {
+        /**
+         * 每个节点上的消费者线程数，分区数不少于线程数时每个线程负责一部分分区，否则多个线程消费同一个分区
+         */
+        private int threads = 1;
+        /**
+         * 消费者名称的前缀，实际名称为 前缀-线程序号，为空时使用主机名；
+         * 同一个节点重启后名称不变，可以继续处理自己pending-list中的消息
+         */
+        private String name;
+        /**
+         * 每次从消息队列中最多读取的订单数，同一批订单在一个事务中批量写入数据库
+         */
+        private int batchSize = 200;
+        /**
+         * 消息队列为空时阻塞等待新消息的时间
+         */
+        private Duration block = Duration.ofSeconds(2);
+    }
+
+    @Data
+    public static class Recovery {
+        /**
+         * 检查pending-list的间隔
+         */
+        private Duration interval = Duration.ofSeconds(30);
+        /**
+         * 消息投递后超过该时间仍未确认，认为消费者已经宕机或处理失败，由恢复任务认领
+         */
+        private Duration minIdle = Duration.ofSeconds(60);
+        /**
+         * 最多投递次数，超过后转入死信队列
+         */
+        private long maxDeliveries = 5;
+        /**
+         * 每个分区每次最多恢复的消息数
+         */
+        private int batchSize = 100;
+    }
+
+    @Data
+    public static class Lease {
+        /**
+         * 是否开启库存租借，开启后节点每次从redis中租借一批库存，在本地扣减
+         */
+        private boolean enabled = false;
+        /**
+         * 每次租借的库存数，越大访问redis越少，但秒杀结束前各节点剩余的库存越多
+         */
+        private int chunk = 50;
+        /**
+         * 检查秒杀是否结束、归还剩余库存的间隔
+         */
+        private Duration checkInterval = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class Buckets {
+        /**
+         * 新建秒杀券时库存拆分的桶数，为1时不分桶，只使用 seckill:stock:{id}；
+         * 每个桶有自己的hash tag，集群模式下分布在不同的分片上，扣减库存不再集中在一个key上
+         */
+        private int count = 1;
+        /**
+         * 库存少于该值的秒杀券不分桶，库存很少时分桶只会让各个桶更快被扣空、更多地去找下一个桶
+         */
+        private int minStock = 1000;
+    }
+
+    @Data
+    public static class Status {
+        /**
+         * 订单状态在redis中的保存时间
+         */
+        private Duration ttl = Duration.ofHours(24);
+        /**
+         * 长轮询等待订单处理完成的最长时间，超时返回queued，客户端再次发起等待
+         */
+        private Duration waitTimeout = Duration.ofSeconds(30);
+    }
+}
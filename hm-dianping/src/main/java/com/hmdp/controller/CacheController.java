@@ -0,0 +1,80 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheRebuildScheduler;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.RefreshAheadScheduler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * 缓存运行状态
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private CacheRebuildScheduler cacheRebuildScheduler;
+    @Resource
+    private CacheWarmer cacheWarmer;
+    @Resource
+    private RefreshAheadScheduler refreshAheadScheduler;
+
+    /**
+     * 提前刷新（XFetch）策略的触发次数
+     */
+    @GetMapping("/stats/early-refresh")
+    public Result earlyRefreshStats() {
+        return Result.ok(cacheClient.earlyRefreshStats());
+    }
+
+    /**
+     * 自适应策略选择各个策略的次数
+     */
+    @GetMapping("/stats/adaptive")
+    public Result adaptiveStats() {
+        return Result.ok(cacheClient.adaptiveStats());
+    }
+
+    /**
+     * 后台提前刷新的领取、刷新次数和等待刷新的key个数
+     */
+    @GetMapping("/stats/refresh-ahead")
+    public Result refreshAheadStats() {
+        return Result.ok(refreshAheadScheduler.stats());
+    }
+
+    /**
+     * 异步重建缓存的队列长度、执行中的任务数和重建耗时
+     */
+    @GetMapping("/stats/rebuild")
+    public Result rebuildStats() {
+        return Result.ok(cacheRebuildScheduler.stats());
+    }
+
+    /**
+     * 当前的热点key及其QPS，这些key在每个节点上都有本地副本，不再访问redis
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+
+    /**
+     * 启动预热的进度和吞吐量
+     */
+    @GetMapping("/warmup")
+    public Result warmup() {
+        return Result.ok(cacheWarmer.progress());
+    }
+}
@@ -8,9 +8,15 @@ import com.hmdp.entity.Shop;
 import com.hmdp.exception.AlreadyRebuildCacheException;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.SystemConstants;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * <p>
@@ -21,19 +27,36 @@ import javax.annotation.Resource;
 @RequestMapping("/shop")
 public class ShopController {
 
+    /**
+     * Result.ok(data)序列化后data之前和之后的部分，Result的其他字段为null，不会被序列化
+     */
+    private static final byte[] RESULT_OK_PREFIX = "{\"success\":true,\"data\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESULT_OK_SUFFIX = "}".getBytes(StandardCharsets.UTF_8);
+
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private ObjectMapper objectMapper;
+
     /**
-     * 根据id查询商铺信息
+     * 根据id查询商铺信息，直接把缓存中渲染好的店铺JSON包装为Result写入响应，缓存命中时没有任何解析和序列化
      * @param id 商铺id
-     * @return 商铺详情数据
+     * @param response 响应，内容为商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-
-        // TODO 定制缓存更新策略
-        return shopService.queryById(id);
+    public void queryShopById(@PathVariable("id") Long id, HttpServletResponse response) throws IOException {
+        byte[] shop = shopService.queryJsonById(id);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        ServletOutputStream out = response.getOutputStream();
+        if (shop == null) {
+            out.write(objectMapper.writeValueAsBytes(Result.fail("店铺不存在！")));
+            return;
+        }
+        out.write(RESULT_OK_PREFIX);
+        out.write(shop);
+        out.write(RESULT_OK_SUFFIX);
     }
 
     /**
@@ -43,8 +66,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-
-        return Result.ok(shop.getId());
+        // 写入数据库
+        return shopService.saveShop(shop);
     }
 
     /**
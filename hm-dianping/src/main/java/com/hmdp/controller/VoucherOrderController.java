@@ -3,10 +3,15 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillStockLease;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 
@@ -25,9 +30,48 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    @Resource
+    private SeckillStockLease stockLease;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         // TODO 完成优惠卷的秒杀
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 每个分区的订单消息积压情况
+     */
+    @GetMapping("lag")
+    public Result consumerLag() {
+        return Result.ok(voucherOrderService.consumerLag());
+    }
+
+    /**
+     * 秒杀订单的处理状态：queued、created、failed，只读redis
+     */
+    @GetMapping("status/{id}")
+    public Result orderStatus(@PathVariable("id") Long orderId) {
+        String status = seckillOrderStatus.get(orderId, UserHolder.getUser().getId());
+        return status == null ? Result.fail("订单不存在！") : Result.ok(status);
+    }
+
+    /**
+     * 长轮询秒杀订单的处理结果，订单处理完成或超时后返回
+     */
+    @GetMapping("status/{id}/wait")
+    public DeferredResult<Result> awaitOrderStatus(@PathVariable("id") Long orderId) {
+        return seckillOrderStatus.await(orderId, UserHolder.getUser().getId());
+    }
+
+    /**
+     * 本节点租借的秒杀库存剩余数量
+     */
+    @GetMapping("leases")
+    public Result stockLeases() {
+        return Result.ok(stockLease.remaining());
+    }
 }
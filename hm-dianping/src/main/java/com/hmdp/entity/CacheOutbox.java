@@ -0,0 +1,84 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * 缓存失效、redis同步事件的本地消息表
+ * </p>
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_cache_outbox")
+public class CacheOutbox implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 删除缓存
+     */
+    public static final String TYPE_EVICT = "evict";
+    /**
+     * set集合添加成员
+     */
+    public static final String TYPE_SADD = "sadd";
+    /**
+     * set集合移除成员
+     */
+    public static final String TYPE_SREM = "srem";
+    /**
+     * sortedSet添加成员
+     */
+    public static final String TYPE_ZADD = "zadd";
+    /**
+     * sortedSet移除成员
+     */
+    public static final String TYPE_ZREM = "zrem";
+
+    /**
+     * 主键，投递顺序与写入顺序一致
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 事件类型
+     */
+    private String type;
+
+    /**
+     * redis键
+     */
+    private String cacheKey;
+
+    /**
+     * 集合成员
+     */
+    private String member;
+
+    /**
+     * zadd的分数
+     */
+    private Double score;
+
+    /**
+     * 已经失败的投递次数
+     */
+    private Integer retries;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+
+
+}
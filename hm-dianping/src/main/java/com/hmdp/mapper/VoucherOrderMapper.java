@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,10 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 批量写入订单，id或(user_id, voucher_id)重复的订单被忽略
+     * @param orders 订单
+     * @return 实际写入的订单数
+     */
+    int insertBatchSkipDuplicates(@Param("orders") List<VoucherOrder> orders);
 }
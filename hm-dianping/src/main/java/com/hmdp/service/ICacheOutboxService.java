@@ -0,0 +1,26 @@
+package com.hmdp.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.entity.CacheOutbox;
+
+/**
+ * <p>
+ *  缓存本地消息表服务类：在业务事务中记录需要对redis执行的操作，事务提交后由CacheOutboxRelay批量投递，
+ *  业务写请求不再等待redis，redis不可用时操作也不会丢失
+ * </p>
+ */
+public interface ICacheOutboxService extends IService<CacheOutbox> {
+
+    /**
+     * 删除缓存，投递时会在一段时间后再删除一次
+     */
+    void evict(String key);
+
+    void setAdd(String key, String member);
+
+    void setRemove(String key, String member);
+
+    void zSetAdd(String key, String member, double score);
+
+    void zSetRemove(String key, String member);
+}
@@ -9,7 +9,11 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    byte[] queryJsonById(Long id);
+
     Result update(Shop shop);
 
+    Result saveShop(Shop shop);
+
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
 }
@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * <p>
@@ -23,4 +26,6 @@ public interface IUserService extends IService<User> {
     Result signCount();
 
     Result logout(HttpServletRequest request);
+
+    List<UserDTO> queryUserDTOByIds(Collection<Long> ids);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Map;
+
 
 public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherId);
@@ -12,4 +14,9 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     public void createVoucherOrder(VoucherOrder voucherOrder);
 
+    /**
+     * 每个分区的订单消息积压情况
+     */
+    Map<String, Map<String, Object>> consumerLag();
+
 }
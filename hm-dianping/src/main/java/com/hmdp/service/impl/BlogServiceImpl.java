@@ -1,34 +1,40 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.annotation.HmCacheable;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
+import com.hmdp.service.ICacheOutboxService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.PenetrationGuard;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import org.springframework.aop.framework.AopContext;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
-import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
@@ -40,6 +46,16 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private PenetrationGuard penetrationGuard;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private ICacheOutboxService cacheOutboxService;
+
     @Override
     public Result queryHotBlog(Integer current) {
         // 根据用户查询
@@ -48,29 +64,40 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
+        // 批量查询用户、是否点赞
+        queryBlogUser(records);
+        isBlogLiked(records);
         return Result.ok(records);
 
     }
 
     @Override
     public Result queryBlogById(Long id) {
-        // 1.查询blog
-        Blog blog = getById(id);
-        if (blog == null) {
+        // 1.查询blog，通过代理对象调用才能使用缓存，缓存中的对象可能被多个请求共享，复制后再填充用户相关的字段
+        IBlogService proxy = (IBlogService) AopContext.currentProxy();
+        Blog cached = proxy.queryBlog(id);
+        if (cached == null) {
             return Result.fail("笔记不存在！");
         }
+        Blog blog = BeanUtil.copyProperties(cached, Blog.class);
         // 2.查询blog有关的用户
-        queryBlogUser(blog);
+        queryBlogUser(Collections.singletonList(blog));
         // 3.查询blog是否被点赞
-        isBlogLiked(blog);
+        isBlogLiked(Collections.singletonList(blog));
         return Result.ok(blog);
     }
 
+    /**
+     * 根据id查询笔记，布隆过滤器拦截一定不存在的id，查询结果缓存在redis中
+     * @param id 笔记id
+     * @return 笔记，不存在时返回null
+     */
+    @Override
+    @HmCacheable(prefix = CACHE_BLOG_KEY)
+    public Blog queryBlog(Long id) {
+        return getById(id);
+    }
+
     @Override
     public Result queryBlogLikes(Long id) {
         String key = BLOG_LIKED_KEY + id;
@@ -81,45 +108,76 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         // 2.解析出其中的用户id
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);
-        // 3.根据用户id查询用户 WHERE id IN ( 5 , 1 ) ORDER BY FIELD(id, 5, 1)
-        List<UserDTO> userDTOS = userService.query()
-                .in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        // 3.根据用户id批量查询用户，结果顺序与ids一致，未命中缓存的用户才会查询数据库
+        List<UserDTO> userDTOS = userService.queryUserDTOByIds(ids);
         // 4.返回
         return Result.ok(userDTOS);
     }
 
+    /**
+     * 点赞集合同步写入redis，以ZADD NX / ZREM的返回值判断是否真正点赞、取消点赞，同一用户的并发点击只有一次生效；
+     * 数据库点赞数和笔记缓存的删除在同一个事务中写入，事务回滚或笔记不存在时撤销点赞集合的修改
+     */
     @Override
+    @Transactional
     public Result likeBlog(Long id) {
         // 1.获取登录用户
-        Long userId = UserHolder.getUser().getId();
+        String userId = UserHolder.getUser().getId().toString();
         // 2.判断当前登录用户是否已经点赞
         String key = BLOG_LIKED_KEY + id;
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
+        Double score = stringRedisTemplate.opsForZSet().score(key, userId);
         if (score == null) {
             // 3.如果未点赞，可以点赞
-            // 3.1.数据库点赞数 + 1
+            // 3.1.保存用户到Redis的set集合 zadd key nx score value，并发点击时只有一个能写入
+            if (!Boolean.TRUE.equals(stringRedisTemplate.opsForZSet().addIfAbsent(key, userId, System.currentTimeMillis()))) {
+                return Result.ok();
+            }
+            afterRollback(() -> stringRedisTemplate.opsForZSet().remove(key, userId));
+            // 3.2.数据库点赞数 + 1
             boolean isSuccess = update().setSql("liked = liked + 1").eq("id", id).update();
-            // 3.2.保存用户到Redis的set集合  zadd key value score
-            if (isSuccess) {
-                stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
+            if (!isSuccess) {
+                // 3.3.笔记不存在，事务照常提交，需要主动撤销点赞集合的修改
+                stringRedisTemplate.opsForZSet().remove(key, userId);
+                return Result.fail("笔记不存在！");
             }
+            // 3.4.点赞数变化，删除笔记缓存
+            cacheOutboxService.evict(CACHE_BLOG_KEY + id);
         } else {
             // 4.如果已点赞，取消点赞
-            // 4.1.数据库点赞数 -1
+            // 4.1.把用户从Redis的set集合移除，并发点击时只有一个能移除
+            Long removed = stringRedisTemplate.opsForZSet().remove(key, userId);
+            if (removed == null || removed == 0) {
+                return Result.ok();
+            }
+            afterRollback(() -> stringRedisTemplate.opsForZSet().add(key, userId, score));
+            // 4.2.数据库点赞数 -1
             boolean isSuccess = update().setSql("liked = liked - 1").eq("id", id).update();
-            // 4.2.把用户从Redis的set集合移除
-            if (isSuccess) {
-                stringRedisTemplate.opsForZSet().remove(key, userId.toString());
+            if (!isSuccess) {
+                // 4.3.笔记不存在，事务照常提交，需要主动撤销点赞集合的修改
+                stringRedisTemplate.opsForZSet().add(key, userId, score);
+                return Result.fail("笔记不存在！");
             }
+            // 4.4.点赞数变化，删除笔记缓存
+            cacheOutboxService.evict(CACHE_BLOG_KEY + id);
         }
         return Result.ok();
 
     }
 
+    /**
+     * 事务回滚后执行，用于撤销已经写入redis的点赞集合
+     */
+    private void afterRollback(Runnable undo) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    undo.run();
+                }
+            }
+        });
+    }
+
     @Override
     public Result saveBlog(Blog blog) {
 
@@ -131,6 +189,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if(!isSuccess){
             return Result.fail("新增笔记失败!");
         }
+        // 2.1.写入布隆过滤器
+        penetrationGuard.put(CACHE_BLOG_KEY, blog.getId());
         // 3.查询笔记作者的所有粉丝 select * from tb_follow where follow_user_id = ?
         List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
         // 4.推送笔记id给所有粉丝
@@ -174,16 +234,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             }
         }
 
-        // 5.根据id查询blog
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-
-        for (Blog blog : blogs) {
-            // 5.1.查询blog有关的用户
-            queryBlogUser(blog);
-            // 5.2.查询blog是否被点赞
-            isBlogLiked(blog);
-        }
+        // 5.根据id批量查询blog，一次MGET，未命中的笔记通过一次IN查询数据库，结果与ids顺序一致
+        List<Blog> blogs = cacheClient.queryBatch(
+                CACHE_BLOG_KEY, ids, Blog.class, this::listByIds, Blog::getId, CACHE_BLOG_TTL, TimeUnit.MINUTES)
+                .stream().map(blog -> BeanUtil.copyProperties(blog, Blog.class)).collect(Collectors.toList());
+        // 5.1.批量查询blog有关的用户
+        queryBlogUser(blogs);
+        // 5.2.批量查询blog是否被点赞
+        isBlogLiked(blogs);
 
         // 6.封装并返回
         ScrollResult r = new ScrollResult();
@@ -195,30 +253,50 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     }
 
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    /**
+     * 批量查询笔记的作者，所有作者一次批量查询，而不是每篇笔记查询一次
+     * @param blogs
+     */
+    private void queryBlogUser(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        Map<Long, UserDTO> users = userService.queryUserDTOByIds(userIds).stream()
+                .collect(Collectors.toMap(UserDTO::getId, Function.identity()));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
     }
 
     /**
-     * 用于查询某用户是否已经对某博客点赞
-     * @param blog
+     * 用于查询某用户是否已经对某些博客点赞，通过一次pipeline完成所有查询
+     * @param blogs
      */
-    private void isBlogLiked(Blog blog) {
+    private void isBlogLiked(List<Blog> blogs) {
         // 1.获取登录用户
         UserDTO user = UserHolder.getUser();
-        if (user == null) {
+        if (user == null || blogs.isEmpty()) {
             // 用户未登录，无需查询是否点赞
             return;
         }
-        Long userId = user.getId();
+        String userId = user.getId().toString();
         // 2.判断当前登录用户是否已经点赞
-        String key = BLOG_LIKED_KEY + blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                conn.zScore(BLOG_LIKED_KEY + blog.getId(), userId);
+            }
+            return null;
+        });
         //将博客的isLike属性设置为true或者false
-        blog.setIsLike(score != null);
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
     }
 
 }
@@ -0,0 +1,67 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import com.hmdp.service.ICacheOutboxService;
+import com.hmdp.utils.CacheOutboxRelay;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ *  缓存本地消息表服务实现类
+ * </p>
+ */
+@Service
+public class CacheOutboxServiceImpl extends ServiceImpl<CacheOutboxMapper, CacheOutbox> implements ICacheOutboxService {
+
+    @Resource
+    private CacheOutboxRelay cacheOutboxRelay;
+
+    @Override
+    public void evict(String key) {
+        append(new CacheOutbox().setType(CacheOutbox.TYPE_EVICT).setCacheKey(key));
+    }
+
+    @Override
+    public void setAdd(String key, String member) {
+        append(new CacheOutbox().setType(CacheOutbox.TYPE_SADD).setCacheKey(key).setMember(member));
+    }
+
+    @Override
+    public void setRemove(String key, String member) {
+        append(new CacheOutbox().setType(CacheOutbox.TYPE_SREM).setCacheKey(key).setMember(member));
+    }
+
+    @Override
+    public void zSetAdd(String key, String member, double score) {
+        append(new CacheOutbox().setType(CacheOutbox.TYPE_ZADD).setCacheKey(key).setMember(member).setScore(score));
+    }
+
+    @Override
+    public void zSetRemove(String key, String member) {
+        append(new CacheOutbox().setType(CacheOutbox.TYPE_ZREM).setCacheKey(key).setMember(member));
+    }
+
+    /**
+     * 写入消息表，与调用方的业务数据在同一个事务中提交；事务提交后立即唤醒投递线程，不用等到下一次轮询
+     */
+    private void append(CacheOutbox event) {
+        event.setRetries(0);
+        save(event);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            cacheOutboxRelay.wakeup();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cacheOutboxRelay.wakeup();
+            }
+        });
+    }
+}
@@ -1,15 +1,18 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
-import com.hmdp.exception.AlreadyRebuildCacheException;
 import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.ICacheOutboxService;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.PenetrationGuard;
+import com.hmdp.utils.RefreshAheadScheduler;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
@@ -20,6 +23,7 @@ import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 import java.util.*;
@@ -39,12 +43,27 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     StringRedisTemplate stringRedisTemplate;
     @Resource
     CacheClient cacheClient;
+    @Resource
+    PenetrationGuard penetrationGuard;
+    @Resource
+    ObjectMapper objectMapper;
+    @Resource
+    ICacheOutboxService cacheOutboxService;
+    @Resource
+    RefreshAheadScheduler refreshAheadScheduler;
+
+    /**
+     * 注册店铺缓存的批量刷新逻辑，按逻辑过期格式写入的店铺（逻辑过期方案、逻辑过期预热）会在过期之前被后台刷新
+     */
+    @PostConstruct
+    private void init() {
+        refreshAheadScheduler.register(CACHE_SHOP_KEY, Long::valueOf, ids -> listByIds(ids), Shop::getId,
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
     @Override
     public Result queryById(Long id) {
-        //1.应对缓存穿透
-        //Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        Shop shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        //Shop shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        Shop shop = queryShop(id);
         if (shop == null) {
             return Result.fail("店铺不存在！");
         }
@@ -53,31 +72,30 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
 
     /**
-     * 根据店铺id查询店铺，使用到了最基础的redis缓存，没有做应对缓存击穿、缓存雪崩、缓存穿透的策略
-     * @param id
-     * @return
+     * 根据id查询店铺，返回渲染好的JSON。本地缓存中已有渲染结果时直接返回，
+     * 不需要把缓存解码为Shop再由Jackson序列化一次
+     * @param id 店铺id
+     * @return 店铺的JSON，店铺不存在时返回null
      */
+    @Override
+    public byte[] queryJsonById(Long id) {
+        return cacheClient.queryRendered(CACHE_SHOP_KEY + id, () -> queryShop(id), this::render);
+    }
 
-    public Result queryByIdBasic(Long id) {
-        String key = CACHE_SHOP_KEY+id;
-        //1.从redis中查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        //2.判断缓存是否存在
-        if(StrUtil.isNotBlank(shopJson)){
-            //3.缓存命中，直接返回商铺信息
-            Shop shop = JSONUtil.toBean(shopJson, Shop.class);
-            return Result.ok(shop);
+    private byte[] render(Shop shop) {
+        try {
+            //使用spring的ObjectMapper，与@RestController返回对象时的JSON格式一致
+            return objectMapper.writeValueAsBytes(shop);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("店铺序列化失败：" + shop.getId(), e);
         }
-        //4.缓存未命中，去数据库中查找,可能会出现缓存击穿的问题
-        Shop shop = getById(id);
-        //5.数据库中不存在，返回错误
-        if(shop == null){
-            return Result.fail("店铺不存在！");
-        }
-        //6.数据库中存在，保存在redis中，并返回
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(shop));
-        stringRedisTemplate.expire(key,CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        return Result.ok(shop);
+    }
+
+    private Shop queryShop(Long id) {
+        //按店铺的访问热度自动选择策略：冷门店铺缓存空值防穿透，温店铺互斥锁重建，热点店铺逻辑过期并由后台提前刷新；
+        //需要固定某一种策略时在 hmdp.cache.adaptive.overrides 中配置，不用再修改代码
+        //互斥锁方案等待重建超时后直接查询数据库作为降级，此时只有少量超时的请求会访问数据库
+        return cacheClient.queryAdaptive(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES, this::getById);
     }
 
     /**
@@ -94,11 +112,26 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         //第一步：更新数据库
         updateById(shop);
-        //第二步：删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY+id);
+        //第二步：在同一个事务中写入删除缓存的消息，提交后由CacheOutboxRelay删除缓存、递增版本号并通知所有节点删除本地缓存，
+        //更新请求不再等待redis，redis暂时不可用时也不会漏删；提交之前开始的缓存重建版本号不一致，不会再写入缓存
+        cacheOutboxService.evict(CACHE_SHOP_KEY+id);
         return Result.ok();
     }
 
+    /**
+     * 新增店铺，并把店铺id写入布隆过滤器，否则新店铺会被当作不存在的数据拦截
+     * @param shop
+     * @return
+     */
+    @Override
+    public Result saveShop(Shop shop) {
+        //写入数据库
+        save(shop);
+        //写入布隆过滤器
+        penetrationGuard.put(CACHE_SHOP_KEY,shop.getId());
+        return Result.ok(shop.getId());
+    }
+
     /**
      *  注意：geo的search方法并没有分页功能，只能指定查到某条数据，并且该条数据之前的所有数据也不可避免的要查，
      *  所以我们必须手动计算起始页from，尾页end，通过截取实现分页
@@ -156,11 +189,15 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             Distance distance = result.getDistance();
             distanceMap.put(shopIdStr, distance);
         });
-        // 5.根据id查询Shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Shop shop : shops) {
+        // 5.根据id批量查询Shop：一次MGET查询缓存，未命中的店铺通过一次IN查询数据库，结果与ids顺序一致
+        List<Shop> cachedShops = cacheClient.queryBatch(
+                CACHE_SHOP_KEY, ids, Shop.class, this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        List<Shop> shops = new ArrayList<>(cachedShops.size());
+        for (Shop cached : cachedShops) {
+            // 缓存中的对象可能是本地缓存中共享的实例，复制一份再设置距离
+            Shop shop = BeanUtil.copyProperties(cached, Shop.class);
             shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+            shops.add(shop);
         }
         // 6.返回
         return Result.ok(shops);
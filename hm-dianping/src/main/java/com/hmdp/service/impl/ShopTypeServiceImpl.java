@@ -5,6 +5,7 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CachePolicies;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
@@ -29,6 +30,8 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
 
     @Resource
     StringRedisTemplate stringRedisTemplate;
+    @Resource
+    CachePolicies cachePolicies;
 
     /**
      * 商铺缓存查询
@@ -58,7 +61,9 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
             //为什么先把list中的对象都先json化？因为rightPushAll方法的最后一个参数其实是可变形参，作用是将所有字符串存储到redis的list中，
             // 若是直接写java-list的json，则相当于redis-list中只有一个元素
             stringRedisTemplate.opsForList().rightPushAll(CACHE_SHOP_TYPE_KEY,jsonShop);
-            stringRedisTemplate.expire(CACHE_SHOP_TYPE_KEY,CACHE_SHOP_TYPE_TTL,TimeUnit.MINUTES);
+            //过期时间按缓存策略加上随机抖动
+            long ttlMillis = cachePolicies.ttlMillis(CACHE_SHOP_TYPE_KEY, TimeUnit.MINUTES.toMillis(CACHE_SHOP_TYPE_TTL));
+            stringRedisTemplate.expire(CACHE_SHOP_TYPE_KEY,ttlMillis,TimeUnit.MILLISECONDS);
             return Result.ok(typeList);
         }
         //5.数据库没有查询到，返回错误信息
@@ -1,11 +1,15 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.annotation.CacheStrategy;
+import com.hmdp.annotation.HmCacheable;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.stereotype.Service;
 
+import static com.hmdp.utils.RedisConstants.CACHE_USER_INFO_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +21,19 @@ import org.springframework.stereotype.Service;
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    /**
+     * 查询用户详情，结果缓存在redis中，不需要返回的创建、更新时间在缓存之前去掉
+     * @param userId 用户id
+     * @return 用户详情，没有详情时返回null
+     */
+    @Override
+    @HmCacheable(prefix = CACHE_USER_INFO_KEY, strategy = CacheStrategy.PASS_THROUGH)
+    public UserInfo queryUserInfo(Long userId) {
+        UserInfo info = getById(userId);
+        if (info != null) {
+            info.setCreateTime(null);
+            info.setUpdateTime(null);
+        }
+        return info;
+    }
 }
@@ -1,6 +1,9 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
@@ -9,27 +12,49 @@ import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillSoldOutFlags;
+import com.hmdp.utils.SeckillStockBuckets;
+import com.hmdp.utils.SeckillStockLease;
+import com.hmdp.utils.SeckillVoucherWindows;
 import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.UserHolder;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
+import org.springframework.core.NestedExceptionUtils;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
 
 
 @Service
@@ -47,24 +72,167 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillSoldOutFlags soldOutFlags;
+
+    @Resource
+    private SeckillStockLease stockLease;
+
+    @Resource
+    private SeckillStockBuckets stockBuckets;
+
+    @Resource
+    private SeckillVoucherWindows voucherWindows;
+
+    @Resource
+    private SeckillOrderStatus orderStatus;
+
+    /**
+     * 消费者线程中没有当前代理对象，通过编程式事务批量创建订单
+     */
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
     //赋值不能写在这里，要在某个线程执行中
     IVoucherOrderService proxy = null;
 
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
 
+    /**
+     * 统计积压时最多数到的消息数
+     */
+    private static final int LAG_COUNT_LIMIT = 10000;
+
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
         SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
-    //该线程执行消费者操作
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    //这些线程执行消费者操作，线程数由 hmdp.seckill.consumer.threads 配置
+    private ExecutorService seckillOrderExecutor;
+
+    private volatile boolean running = true;
+
+    /**
+     * 转入死信队列的消息数
+     */
+    private final AtomicLong deadLetterCount = new AtomicLong();
 
     @PostConstruct
     private void init() {
-        //提交消费者任务
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        //1.创建每个分区的消费者组
+        List<String> streamKeys = streamKeys();
+        for (String streamKey : streamKeys) {
+            createGroupIfAbsent(streamKey);
+        }
+        //2.提交消费者任务，每个线程使用不同的消费者名称
+        int threads = seckillProperties.getConsumer().getThreads();
+        seckillOrderExecutor = Executors.newFixedThreadPool(threads,
+                ThreadFactoryBuilder.create().setNamePrefix("seckill-order-").build());
+        String name = consumerNamePrefix();
+        for (int i = 0; i < threads; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(name + "-" + i, partitionsOf(i, threads, streamKeys)));
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        seckillOrderExecutor.shutdown();
+    }
+
+    /**
+     * 所有分区的消息队列key，与seckill.lua中的分区规则一致
+     */
+    private List<String> streamKeys() {
+        int partitions = seckillProperties.getPartitions();
+        if (partitions <= 1) {
+            return Collections.singletonList(SECKILL_ORDER_STREAM_KEY);
+        }
+        List<String> keys = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            keys.add(SECKILL_ORDER_STREAM_KEY + ":" + i);
+        }
+        return keys;
+    }
+
+    /**
+     * 第index个消费者线程负责的分区：分区数不少于线程数时按取模分配，否则多个线程消费同一个分区
+     */
+    private static List<String> partitionsOf(int index, int threads, List<String> streamKeys) {
+        if (threads >= streamKeys.size()) {
+            return Collections.singletonList(streamKeys.get(index % streamKeys.size()));
+        }
+        List<String> keys = new ArrayList<>();
+        for (int i = index; i < streamKeys.size(); i += threads) {
+            keys.add(streamKeys.get(i));
+        }
+        return keys;
+    }
+
+    private String consumerNamePrefix() {
+        String name = seckillProperties.getConsumer().getName();
+        if (StrUtil.isNotBlank(name)) {
+            return name;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "c";
+        }
+    }
+
+    /**
+     * 创建消费者组，队列不存在时一起创建（MKSTREAM），从头开始消费已有的消息
+     */
+    private void createGroupIfAbsent(String streamKey) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(streamKey.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+            log.debug("创建消费者组：" + streamKey + " " + SECKILL_ORDER_GROUP);
+        } catch (Exception e) {
+            //BUSYGROUP：消费者组已经存在
+            if (!String.valueOf(NestedExceptionUtils.getMostSpecificCause(e).getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 每个分区的消息积压情况
+     * @return 分区 -> 队列长度、未投递给消费者的消息数（超过上限时为上限）、已投递未确认的消息数、消费者数
+     */
+    @Override
+    public Map<String, Map<String, Object>> consumerLag() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        for (String streamKey : streamKeys()) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("length", stringRedisTemplate.opsForStream().size(streamKey));
+            StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(streamKey);
+            for (int i = 0; i < groups.size(); i++) {
+                StreamInfo.XInfoGroup group = groups.get(i);
+                if (!SECKILL_ORDER_GROUP.equals(group.groupName())) {
+                    continue;
+                }
+                //last-delivered-id之后的消息就是还没有被任何消费者读取的消息
+                List<MapRecord<String, Object, Object>> undelivered = stringRedisTemplate.opsForStream().range(streamKey,
+                        Range.of(Range.Bound.exclusive(group.lastDeliveredId()), Range.Bound.unbounded()),
+                        RedisZSetCommands.Limit.limit().count(LAG_COUNT_LIMIT));
+                stats.put("lag", undelivered == null ? 0 : undelivered.size());
+                stats.put("pending", group.pendingCount());
+                stats.put("consumers", group.consumerCount());
+            }
+            result.put(streamKey, stats);
+        }
+        Map<String, Object> deadLetter = new LinkedHashMap<>();
+        deadLetter.put("length", stringRedisTemplate.opsForStream().size(SECKILL_ORDER_DLQ_KEY));
+        deadLetter.put("movedByThisNode", deadLetterCount.get());
+        result.put(SECKILL_ORDER_DLQ_KEY, deadLetter);
+        return result;
     }
 
     /**
@@ -170,25 +338,111 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
+        //0.按本地保存的秒杀时间提前拒绝，不查询数据库
+        String outOfWindow = voucherWindows.check(voucherId);
+        if (outOfWindow != null) {
+            return Result.fail(outOfWindow);
+        }
+        //1.开启库存租借时先扣减本地租借的库存，本地有库存时即使其他节点已经售罄也可以继续卖
+        boolean leased = stockLease.isEnabled() && stockLease.tryAcquireLocal(voucherId);
+        //2.本地已经标记售罄，直接拒绝，不访问redis
+        if (!leased && soldOutFlags.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
         Long userId = UserHolder.getUser().getId();
-        Long orderId =redisIdWorker.nextId("order");
-        //执行lua脚本
-        Long execute = stringRedisTemplate.execute(SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(),orderId.toString());
-        int value = execute.intValue();
-
+        if (!leased && stockLease.isEnabled()) {
+            //本地没有库存了，从redis中租借一批
+            if (!stockLease.tryAcquire(voucherId)) {
+                soldOutFlags.markSoldOut(voucherId);
+                return Result.fail("库存不足");
+            }
+            leased = true;
+        }
+        //2.1.库存分桶时按用户id选桶扣减一个库存，桶空了找下一个桶，脚本中不再访问库存
+        boolean bucketTaken = false;
+        if (!leased && stockBuckets.isBucketed(voucherId)) {
+            if (stockBuckets.take(voucherId, userId, 1) <= 0) {
+                soldOutFlags.markSoldOut(voucherId);
+                return Result.fail("库存不足");
+            }
+            bucketTaken = true;
+        }
+        //3.执行lua脚本，有购买资格时才在脚本中自增序列号生成订单id
+        LocalDateTime now = LocalDateTime.now();
+        long orderIdPrefix = redisIdWorker.timestampPart(now);
+        Long execute;
+        try {
+            execute = stringRedisTemplate.execute(SECKILL_SCRIPT,
+                    Collections.emptyList(),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderIdPrefix),
+                    String.valueOf(seckillProperties.getPartitions()),
+                    redisIdWorker.counterKey("order", now), leased || bucketTaken ? "1" : "0",
+                    String.valueOf(seckillProperties.getStatus().getTtl().getSeconds()));
+        } catch (RuntimeException e) {
+            if (leased || bucketTaken) {
+                releaseIfNotOrdered(voucherId, userId, bucketTaken);
+            }
+            throw e;
+        }
+        long value = execute;
 
-        if(value != 0){
-            // 不为0，代表没有购买资格
-            return Result.fail(value == 1 ? "库存不足":"不能重复下单");
+        if(value < 0){
+            // 小于0，代表没有购买资格
+            if (leased || bucketTaken) {
+                //没有下单成功，扣减的库存放回去
+                release(voucherId, userId, bucketTaken);
+            }
+            if (value == -1) {
+                //库存不足，标记售罄并通知其他节点
+                soldOutFlags.markSoldOut(voucherId);
+                return Result.fail("库存不足");
+            }
+            if (value == -3) {
+                return Result.fail("秒杀尚未开始！");
+            }
+            if (value == -4) {
+                return Result.fail("秒杀已经结束！");
+            }
+            return Result.fail("不能重复下单");
         }
+        //4.拼接订单id，与脚本写入消息队列的id一致
+        long orderId = orderIdPrefix | value;
         proxy = (IVoucherOrderService) AopContext.currentProxy();
         return Result.ok(orderId);
 
     }
 
 
+    /**
+     * 执行秒杀脚本抛出异常（例如客户端超时）时，脚本可能已经在redis中执行成功，扣减的库存已经卖出。
+     * 只有确认用户不在已下单集合中（脚本没有执行）时才放回库存；无法确认时宁可少卖一件，不能超卖
+     */
+    private void releaseIfNotOrdered(Long voucherId, Long userId, boolean bucketTaken) {
+        try {
+            Boolean ordered = stringRedisTemplate.opsForSet().isMember(SECKILL_ORDER_KEY + voucherId, userId.toString());
+            if (Boolean.FALSE.equals(ordered)) {
+                release(voucherId, userId, bucketTaken);
+            }
+        } catch (RuntimeException e) {
+            log.error("无法确认用户" + userId + "是否已经抢到优惠券" + voucherId + "，不放回库存", e);
+        }
+    }
+
+    /**
+     * 放回没有卖出的一个库存：从本地租借的放回本地，从分桶中扣减的放回该用户的桶
+     */
+    private void release(Long voucherId, Long userId, boolean bucketTaken) {
+        if (!bucketTaken) {
+            stockLease.release(voucherId);
+            return;
+        }
+        try {
+            stockBuckets.giveBack(voucherId, userId, 1);
+        } catch (RuntimeException e) {
+            log.error("放回优惠券" + voucherId + "的分桶库存失败，少卖一件", e);
+        }
+    }
+
     @Transactional
     public  Result createVoucherOrder(Long voucherId){
         Long userId = UserHolder.getUser().getId();
@@ -231,77 +485,145 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Transactional
     public void createVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId = voucherOrder.getUserId();
-        Long voucherId = voucherOrder.getVoucherId();
-        // 创建锁对象
-        RLock redisLock = redissonClient.getLock("lock:order:" + userId);
-        // 尝试获取锁
-        boolean isLock = redisLock.tryLock();
-        // 判断
-        if (!isLock) {
-            // 获取锁失败，直接返回失败或者重试
-            log.error("不允许重复下单！");
-            return;
-        }
-
-        try {
-            // 5.1.查询订单
-            int count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
-            // 5.2.判断是否存在
-            if (count > 0) {
-                // 用户已经购买过了
-                log.error("不允许重复下单！");
-                return;
-            }
+        createVoucherOrders(Collections.singletonList(voucherOrder));
+    }
 
-            // 6.扣减库存
+    /**
+     * 批量创建订单，给消费者使用，调用方需要开启事务：
+     * 1.库存按优惠券聚合，每个优惠券只执行一次 stock = stock - k；
+     * 2.订单通过一条 INSERT ... ON DUPLICATE KEY UPDATE 写入，已经写入过的订单（确认消息之前宕机、重新投递的消息）
+     *   和同一用户的重复订单由主键、唯一索引 uk_user_voucher 忽略；
+     * 3.按实际写入的行数退回多扣的库存。
+     * 资格（库存、一人一单）已经由seckill.lua在redis中判断过，这里不加锁，也不先查询订单
+     * @param voucherOrders 同一批消息中的订单
+     * @return 每个订单的处理结果，订单id -> created/failed，事务提交后写入订单状态
+     */
+    private Map<Long, String> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        Map<Long, String> statuses = new HashMap<>();
+        if (voucherOrders.isEmpty()) {
+            return statuses;
+        }
+        // 1.按优惠券分组
+        Map<Long, List<VoucherOrder>> byVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        for (Map.Entry<Long, List<VoucherOrder>> entry : byVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            List<VoucherOrder> orders = entry.getValue();
+            int count = orders.size();
+            // 2.扣减库存
             boolean success = seckillVoucherService.update()
-                    .setSql("stock = stock - 1") // set stock = stock - 1
-                    .eq("voucher_id", voucherId).gt("stock", 0) // where id = ? and stock > 0
+                    .setSql("stock = stock - " + count)
+                    .eq("voucher_id", voucherId).ge("stock", count)
                     .update();
-            if (!success) {
-                // 扣减失败
-                log.error("库存不足！");
-                return;
+            if (success) {
+                // 3.写入订单，退回重复订单扣减的库存
+                int inserted = getBaseMapper().insertBatchSkipDuplicates(orders);
+                if (inserted < count) {
+                    log.debug("优惠券" + voucherId + "有" + (count - inserted) + "个订单已经存在，退回库存");
+                    restoreStock(voucherId, count - inserted);
+                    putStatusesOfIgnored(orders, statuses);
+                } else {
+                    orders.forEach(order -> statuses.put(order.getId(), SeckillOrderStatus.CREATED));
+                }
+                continue;
+            }
+            // 2.1.数据库库存与redis不一致（正常情况下不会发生），逐个扣减，能扣减多少就创建多少订单
+            log.error("优惠券" + voucherId + "数据库库存不足" + count + "，逐个扣减");
+            boolean soldOut = false;
+            for (VoucherOrder voucherOrder : orders) {
+                boolean one = !soldOut && seckillVoucherService.update()
+                        .setSql("stock = stock - 1")
+                        .eq("voucher_id", voucherId).gt("stock", 0)
+                        .update();
+                if (!one) {
+                    log.error("库存不足，订单" + voucherOrder.getId() + "没有创建！");
+                    statuses.put(voucherOrder.getId(), SeckillOrderStatus.FAILED);
+                    soldOut = true;
+                    continue;
+                }
+                if (getBaseMapper().insertBatchSkipDuplicates(Collections.singletonList(voucherOrder)) == 0) {
+                    restoreStock(voucherId, 1);
+                    putStatusesOfIgnored(Collections.singletonList(voucherOrder), statuses);
+                } else {
+                    statuses.put(voucherOrder.getId(), SeckillOrderStatus.CREATED);
+                }
             }
+        }
+        return statuses;
+    }
 
-            // 7.创建订单
-            save(voucherOrder);
-        } finally {
-            // 释放锁
-            redisLock.unlock();
+    /**
+     * 有订单因唯一键冲突被忽略时（很少发生）才按id查询一次：id已经存在的是重新投递、之前已经创建的订单，
+     * 其余是同一用户的重复订单
+     */
+    private void putStatusesOfIgnored(List<VoucherOrder> orders, Map<Long, String> statuses) {
+        List<Long> ids = orders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        Set<Long> existing = query().select("id").in("id", ids).list()
+                .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        for (Long id : ids) {
+            statuses.put(id, existing.contains(id) ? SeckillOrderStatus.CREATED : SeckillOrderStatus.FAILED);
         }
     }
 
+    private void restoreStock(Long voucherId, int count) {
+        seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+    }
+
     /**
      * 内部类，用于定义Runnable方法，声明了消费者需要执行的任务
      */
     private class VoucherOrderHandler implements Runnable {
 
+        /**
+         * 消费者名称，每个节点的每个线程都不同
+         */
+        private final Consumer consumer;
+        /**
+         * 负责的分区
+         */
+        private final List<String> streamKeys;
+
+        VoucherOrderHandler(String consumerName, List<String> streamKeys) {
+            this.consumer = Consumer.from(SECKILL_ORDER_GROUP, consumerName);
+            this.streamKeys = streamKeys;
+        }
+
+        /**
+         * 负责的每个分区的读取位置，泛型数组只能通过原始类型创建
+         * @param readOffsetOf 分区key -> 读取位置
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private StreamOffset<String>[] offsets(Function<String, ReadOffset> readOffsetOf) {
+            StreamOffset<String>[] offsets = new StreamOffset[streamKeys.size()];
+            for (int i = 0; i < streamKeys.size(); i++) {
+                offsets[i] = StreamOffset.create(streamKeys.get(i), readOffsetOf.apply(streamKeys.get(i)));
+            }
+            return offsets;
+        }
+
         @Override
         public void run() {
-            while (true) {
+            // 启动时先处理自己上次没有确认的消息
+            handlePendingList();
+            while (running) {
                 try {
-                    // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 >
+                    // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 host-0 COUNT n BLOCK 2000 STREAMS stream.orders:0 ... >
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create("stream.orders", ReadOffset.lastConsumed())
+                            consumer,
+                            StreamReadOptions.empty().count(seckillProperties.getConsumer().getBatchSize())
+                                    .block(seckillProperties.getConsumer().getBlock()),
+                            offsets(streamKey -> ReadOffset.lastConsumed())
                     );
                     // 2.判断订单信息是否为空
                     if (list == null || list.isEmpty()) {
                         // 如果为null，说明没有消息，继续下一次循环
                         continue;
                     }
-                    // 解析数据
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    // 3.创建订单
-
-                    proxy.createVoucherOrder(voucherOrder);
-                    // 4.确认消息 XACK
-                    stringRedisTemplate.opsForStream().acknowledge("s1", "g1", record.getId());
+                    // 3.批量创建订单并确认消息，整批失败时逐条处理，仍然失败的留在pending-list中
+                    handleRecords(list);
                 } catch (Exception e) {
                     log.error("处理订单异常", e);
                     handlePendingList();
@@ -309,32 +631,162 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             }
         }
 
+        /**
+         * 处理自己pending-list中的消息，每条消息只处理一次：按id向后推进，处理失败的消息留在pending-list中，
+         * 由recoverPending在空闲一段时间后重新认领、累计投递次数，超过次数后转入死信队列，不会在这里反复重试
+         */
         private void handlePendingList() {
-            while (true) {
+            // 每个分区已经处理到的消息id
+            Map<String, String> lastIds = new HashMap<>();
+            for (String streamKey : streamKeys) {
+                lastIds.put(streamKey, "0");
+            }
+            while (running) {
                 try {
-                    // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 0
+                    // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 host-0 COUNT n STREAMS stream.orders:0 ... id
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create("stream.orders", ReadOffset.from("0"))
+                            consumer,
+                            StreamReadOptions.empty().count(seckillProperties.getConsumer().getBatchSize()),
+                            offsets(streamKey -> ReadOffset.from(lastIds.get(streamKey)))
                     );
                     // 2.判断订单信息是否为空
                     if (list == null || list.isEmpty()) {
                         // 如果为null，说明没有异常消息，结束循环
                         break;
                     }
-                    // 解析数据
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    // 3.创建订单
-                    proxy.createVoucherOrder(voucherOrder);
-                    // 4.确认消息 XACK
-                    stringRedisTemplate.opsForStream().acknowledge("s1", "g1", record.getId());
+                    for (MapRecord<String, Object, Object> record : list) {
+                        lastIds.put(record.getStream(), record.getId().getValue());
+                    }
+                    // 3.批量创建订单并确认消息，整批失败时逐条处理，把有问题的消息隔离出来
+                    handleRecords(list);
                 } catch (Exception e) {
-                    log.error("处理订单异常", e);
+                    log.error("处理pending-list异常", e);
+                    break;
                 }
             }
         }
     }
+
+    /**
+     * 先整批处理，失败后逐条处理，有问题的消息不会阻塞同一批中的其他订单
+     * @param records 消息
+     * @return 逐条处理仍然失败的消息数
+     */
+    private int handleRecords(List<? extends MapRecord<String, ?, ?>> records) {
+        try {
+            handleBatch(records);
+            return 0;
+        } catch (Exception e) {
+            log.error("批量处理" + records.size() + "条订单消息失败，逐条处理", e);
+        }
+        int failed = 0;
+        for (MapRecord<String, ?, ?> record : records) {
+            try {
+                handleBatch(Collections.singletonList(record));
+            } catch (Exception e) {
+                failed++;
+                log.error("处理订单消息失败：" + record.getStream() + " " + record.getId() + " " + record.getValue(), e);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * 一批消息（可能来自多个分区）在一个事务中创建订单，提交后每个分区通过一次XACK确认；
+     * 事务失败时整批消息留在pending-list中重新处理，已经写入的订单会被跳过
+     */
+    private void handleBatch(List<? extends MapRecord<String, ?, ?>> list) {
+        // 1.解析数据
+        List<VoucherOrder> voucherOrders = new ArrayList<>(list.size());
+        Map<String, List<RecordId>> recordIds = new LinkedHashMap<>();
+        for (MapRecord<String, ?, ?> record : list) {
+            voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            recordIds.computeIfAbsent(record.getStream(), k -> new ArrayList<>()).add(record.getId());
+        }
+        // 2.创建订单
+        Map<Long, String> statuses = transactionTemplate.execute(status -> createVoucherOrders(voucherOrders));
+        // 3.确认消息 XACK
+        for (Map.Entry<String, List<RecordId>> entry : recordIds.entrySet()) {
+            stringRedisTemplate.opsForStream().acknowledge(entry.getKey(), SECKILL_ORDER_GROUP,
+                    entry.getValue().toArray(new RecordId[0]));
+        }
+        // 4.事务已经提交，更新订单状态并通知等待的请求
+        orderStatus.complete(statuses);
+    }
+
+    /**
+     * 定时恢复pending-list中长时间没有确认的消息（消费者宕机、处理失败）：
+     * 1.XPENDING查询空闲超过 recovery.min-idle 的消息及其投递次数；
+     * 2.XCLAIM认领到本节点的恢复消费者名下，多个节点同时恢复时只有一个节点能认领成功，认领会使投递次数加一；
+     * 3.投递次数达到 recovery.max-deliveries 的消息转入死信队列并确认，不再重试；
+     * 4.其余消息批量创建订单，失败的消息逐条处理，仍然失败的等待下一次恢复
+     */
+    @Scheduled(fixedDelayString = "#{@seckillProperties.recovery.interval.toMillis()}")
+    public void recoverPending() {
+        SeckillProperties.Recovery recovery = seckillProperties.getRecovery();
+        String owner = consumerNamePrefix() + "-recovery";
+        for (String streamKey : streamKeys()) {
+            try {
+                recoverPending(streamKey, owner, recovery);
+            } catch (Exception e) {
+                log.error("恢复" + streamKey + "的pending-list失败", e);
+            }
+        }
+    }
+
+    private void recoverPending(String streamKey, String owner, SeckillProperties.Recovery recovery) {
+        // 1.查询pending-list
+        PendingMessages pending = stringRedisTemplate.opsForStream()
+                .pending(streamKey, SECKILL_ORDER_GROUP, Range.unbounded(), recovery.getBatchSize());
+        Map<RecordId, Long> deliveries = new HashMap<>();
+        for (PendingMessage message : pending) {
+            if (message.getElapsedTimeSinceLastDelivery().compareTo(recovery.getMinIdle()) >= 0) {
+                deliveries.put(message.getId(), message.getTotalDeliveryCount());
+            }
+        }
+        if (deliveries.isEmpty()) {
+            return;
+        }
+        // 2.认领空闲的消息
+        byte[] rawKey = streamKey.getBytes(StandardCharsets.UTF_8);
+        List<ByteRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(rawKey, SECKILL_ORDER_GROUP, owner, recovery.getMinIdle(),
+                        deliveries.keySet().toArray(new RecordId[0])));
+        if (claimed == null || claimed.isEmpty()) {
+            return;
+        }
+        List<MapRecord<String, String, String>> retry = new ArrayList<>(claimed.size());
+        for (ByteRecord record : claimed) {
+            MapRecord<String, String, String> mapRecord = record.deserialize(StringRedisSerializer.UTF_8);
+            // 3.超过重试次数，转入死信队列
+            if (deliveries.get(record.getId()) >= recovery.getMaxDeliveries()) {
+                deadLetter(mapRecord, deliveries.get(record.getId()));
+            } else {
+                retry.add(mapRecord);
+            }
+        }
+        // 4.重新创建订单
+        if (!retry.isEmpty()) {
+            int failed = handleRecords(retry);
+            log.debug("恢复" + streamKey + "中" + retry.size() + "条订单消息，失败" + failed + "条");
+        }
+    }
+
+    /**
+     * 把消息连同来源和投递次数写入死信队列，然后确认原消息
+     */
+    private void deadLetter(MapRecord<String, String, String> record, long deliveryCount) {
+        Map<String, String> value = new LinkedHashMap<>(record.getValue());
+        value.put("stream", record.getStream());
+        value.put("recordId", record.getId().getValue());
+        value.put("deliveries", String.valueOf(deliveryCount));
+        stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ_KEY, value);
+        stringRedisTemplate.opsForStream().acknowledge(record.getStream(), SECKILL_ORDER_GROUP, record.getId());
+        deadLetterCount.incrementAndGet();
+        log.error("订单消息投递" + deliveryCount + "次仍然失败，转入死信队列：" + value);
+        String orderId = record.getValue().get("id");
+        if (orderId != null) {
+            orderStatus.complete(Collections.singletonMap(Long.valueOf(orderId), SeckillOrderStatus.FAILED));
+        }
+    }
 }
@@ -1,20 +1,28 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.annotation.HmCacheEvict;
+import com.hmdp.annotation.HmCacheable;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.SeckillSoldOutFlags;
+import com.hmdp.utils.SeckillStockBuckets;
+import com.hmdp.utils.SeckillVoucherWindows;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_KEY;
 
 
 @Service
@@ -24,18 +32,81 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillSoldOutFlags soldOutFlags;
+
+    @Resource
+    private SeckillVoucherWindows voucherWindows;
+
+    @Resource
+    private SeckillStockBuckets stockBuckets;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
-        // 返回结果
+        // 1.查询优惠券信息，通过代理对象调用才能使用缓存
+        IVoucherService proxy = (IVoucherService) AopContext.currentProxy();
+        List<Voucher> vouchers = proxy.listVoucherOfShop(shopId);
+        // 2.秒杀券的库存随下单变化，从redis中读取实时库存
+        vouchers = withLiveStock(vouchers);
+        // 3.返回结果
         return Result.ok(vouchers);
     }
 
+    /**
+     * 查询店铺的优惠券，包含秒杀券的时间，缓存中的库存只是写入时的值，返回前会替换为redis中的实时库存
+     * @param shopId 店铺id
+     * @return 优惠券列表
+     */
+    @Override
+    @HmCacheable(prefix = CACHE_SHOP_VOUCHER_KEY, elementType = Voucher.class)
+    public List<Voucher> listVoucherOfShop(Long shopId) {
+        return getBaseMapper().queryVoucherOfShop(shopId);
+    }
+
+    /**
+     * 用redis中的库存替换秒杀券的库存，分桶的秒杀券为各个桶之和，缓存中的对象可能被多个请求共享，替换时复制一份
+     * @param vouchers 缓存中的优惠券列表
+     * @return 新的列表，redis中没有库存的保留原值
+     */
+    private List<Voucher> withLiveStock(List<Voucher> vouchers) {
+        if (vouchers == null || vouchers.isEmpty()) {
+            return vouchers;
+        }
+        // 1.找出秒杀券，普通券没有库存
+        List<Long> ids = new ArrayList<>();
+        for (Voucher voucher : vouchers) {
+            if (voucher.getStock() != null) {
+                ids.add(voucher.getId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return vouchers;
+        }
+        // 2.一次批量读取库存
+        Map<Long, Integer> stocks = stockBuckets.stocks(ids);
+        // 3.复制并替换库存
+        List<Voucher> result = new ArrayList<>(vouchers.size());
+        for (Voucher voucher : vouchers) {
+            Integer stock = stocks.get(voucher.getId());
+            if (stock == null) {
+                result.add(voucher);
+                continue;
+            }
+            Voucher copy = BeanUtil.copyProperties(voucher, Voucher.class);
+            copy.setStock(stock);
+            result.add(copy);
+        }
+        return result;
+    }
+
+    @Override
+    @HmCacheEvict(prefix = CACHE_SHOP_VOUCHER_KEY, key = "#voucher.shopId")
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
+    }
+
     @Override
     @Transactional
+    @HmCacheEvict(prefix = CACHE_SHOP_VOUCHER_KEY, key = "#voucher.shopId")
     public void addSeckillVoucher(Voucher voucher) {
         // 保存优惠券
         save(voucher);
@@ -47,9 +118,13 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         //将秒杀优惠券信息添加到数据库
         seckillVoucherService.save(seckillVoucher);
-        //秒杀优化：将秒杀优惠券添加导redis缓存
-
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY+voucher.getId(),voucher.getStock().toString());
+        //秒杀优化：将秒杀优惠券添加导redis缓存，库存较多时拆分到多个桶中
+        int buckets = stockBuckets.bucketsFor(voucher.getStock());
+        stockBuckets.init(voucher.getId(), voucher.getStock(), buckets);
+        //秒杀时间和分桶数写入redis，下单时由seckill.lua检查时间，按分桶数扣减库存
+        voucherWindows.publish(voucher.getId(), voucher.getBeginTime(), voucher.getEndTime(), buckets);
+        //补充了库存，取消各节点的售罄标记
+        soldOutFlags.reset(voucher.getId());
 
     }
 }
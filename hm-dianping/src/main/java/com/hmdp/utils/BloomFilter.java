@@ -0,0 +1,96 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 进程内的布隆过滤器，用于在访问redis和数据库之前拦截一定不存在的id。
+ * 判断为不存在时一定不存在；判断为存在时有一定概率误判，误判率由构造参数决定。
+ * 位数组使用AtomicLongArray保存，写入和查询都不需要加锁
+ */
+public class BloomFilter {
+
+    /**
+     * 位数组
+     */
+    private final AtomicLongArray bits;
+    /**
+     * 位数组的总位数
+     */
+    private final long bitSize;
+    /**
+     * 哈希函数个数
+     */
+    private final int hashFunctions;
+
+    /**
+     * @param expectedInsertions 预计写入的元素个数
+     * @param fpp 期望的误判率，例如0.01
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(expectedInsertions, 1);
+        //最优位数 m = -n*ln(p)/(ln2)^2
+        long m = (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        //向上取整到64的倍数
+        int words = (int) Math.max((m + 63) / 64, 1);
+        this.bits = new AtomicLongArray(words);
+        this.bitSize = (long) words * 64;
+        //最优哈希函数个数 k = m/n*ln2
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+    }
+
+    /**
+     * 写入元素
+     * @param value 元素，一般是id
+     */
+    public void put(Object value) {
+        long hash = MurmurHash.hash64(value.toString());
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashFunctions; i++) {
+            long index = index(h1 + i * h2);
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long old;
+            do {
+                old = bits.get(word);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, old, old | mask));
+        }
+    }
+
+    /**
+     * 判断元素是否可能存在
+     * @param value 元素，一般是id
+     * @return false：一定不存在；true：可能存在
+     */
+    public boolean mightContain(Object value) {
+        long hash = MurmurHash.hash64(value.toString());
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashFunctions; i++) {
+            long index = index(h1 + i * h2);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 组合哈希值映射到位数组下标，保证非负
+     */
+    private long index(int combinedHash) {
+        return (combinedHash & Integer.MAX_VALUE) % bitSize;
+    }
+
+    /**
+     * @return 位数组占用的字节数
+     */
+    public long byteSize() {
+        return bitSize / 8;
+    }
+}
@@ -1,21 +1,41 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import jodd.util.StringUtil;
+import com.hmdp.annotation.CacheStrategy;
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
-import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
+@Slf4j
 @Component
 public class CacheClient {
 
@@ -24,23 +44,132 @@ public class CacheClient {
      */
     private final StringRedisTemplate stringRedisTemplate;
     /**
-     * 线程池
+     * 进程内的一级缓存，命中时既不需要访问redis，也不需要反序列化
      */
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private final LocalCache localCache;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final CacheProperties cacheProperties;
+    /**
+     * 缓存值的编解码器，按key前缀选择JSON或紧凑二进制格式
+     */
+    private final CacheCodecs cacheCodecs;
+    /**
+     * 按key前缀配置的过期策略（基础过期时间、随机抖动、空值过期时间、逻辑过期时间）
+     */
+    private final CachePolicies cachePolicies;
+    /**
+     * 布隆过滤器，拦截一定不存在的id，防止缓存穿透
+     */
+    private final PenetrationGuard penetrationGuard;
+    /**
+     * 热点key探测，热点key会在本地保存短时间的副本
+     */
+    private final HotKeyDetector hotKeyDetector;
+
+    private final RedisMessageListenerContainer listenerContainer;
+    /**
+     * 缓存未命中时的请求合并，同一个JVM内同一个key同一时刻只有一个线程去重建缓存
+     */
+    private final SingleFlight singleFlight = new SingleFlight();
+    /**
+     * 竞争互斥锁失败后等待其他节点重建完成的信号，收到重建完成的通知时被唤醒
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> rebuildSignals = new ConcurrentHashMap<>();
+    /**
+     * 异步重建缓存的调度器，有界队列、按key去重、热点优先
+     */
+    private final CacheRebuildScheduler rebuildScheduler;
+    /**
+     * 提前刷新策略的统计：未过期就提前刷新的次数、过期后才刷新的次数、因为其他线程正在刷新而跳过的次数、
+     * 刷新前发现缓存已被其他节点刷新而放弃的次数
+     */
+    private final AtomicLong earlyRefreshCount = new AtomicLong();
+    private final AtomicLong expiredRefreshCount = new AtomicLong();
+    private final AtomicLong refreshLockBusyCount = new AtomicLong();
+    private final AtomicLong refreshDiscardedCount = new AtomicLong();
+    /**
+     * 注册了后台提前刷新的key前缀，这些前缀的逻辑过期key写入时记录到 CACHE_REFRESH_AHEAD_KEY
+     */
+    private final Set<String> refreshAheadPrefixes = ConcurrentHashMap.newKeySet();
+    /**
+     * 使用过自适应策略的key前缀，这些前缀的key降温后不再提前刷新
+     */
+    private final Set<String> adaptivePrefixes = ConcurrentHashMap.newKeySet();
+    /**
+     * 自适应策略选择各个策略的次数
+     */
+    private final Map<CacheStrategy, AtomicLong> adaptiveCounts = new EnumMap<>(CacheStrategy.class);
+    {
+        for (CacheStrategy strategy : CacheStrategy.values()) {
+            adaptiveCounts.put(strategy, new AtomicLong());
+        }
+    }
+
+    /**
+     * 版本号一致时才写入缓存的脚本
+     */
+    private static final DefaultRedisScript<Long> SET_VERSIONED_SCRIPT;
+    /**
+     * 递增版本号并删除缓存的脚本
+     */
+    private static final DefaultRedisScript<Long> EVICT_VERSIONED_SCRIPT;
+    static {
+        SET_VERSIONED_SCRIPT = new DefaultRedisScript<>();
+        SET_VERSIONED_SCRIPT.setLocation(new ClassPathResource("cache_set_versioned.lua"));
+        SET_VERSIONED_SCRIPT.setResultType(Long.class);
+        EVICT_VERSIONED_SCRIPT = new DefaultRedisScript<>();
+        EVICT_VERSIONED_SCRIPT.setLocation(new ClassPathResource("cache_evict_versioned.lua"));
+        EVICT_VERSIONED_SCRIPT.setResultType(Long.class);
+    }
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, LocalCache localCache,
+                       CacheProperties cacheProperties, CacheCodecs cacheCodecs, CachePolicies cachePolicies,
+                       PenetrationGuard penetrationGuard, HotKeyDetector hotKeyDetector,
+                       CacheRebuildScheduler rebuildScheduler, RedisMessageListenerContainer listenerContainer) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.localCache = localCache;
+        this.cacheProperties = cacheProperties;
+        this.cacheCodecs = cacheCodecs;
+        this.cachePolicies = cachePolicies;
+        this.penetrationGuard = penetrationGuard;
+        this.hotKeyDetector = hotKeyDetector;
+        this.rebuildScheduler = rebuildScheduler;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init() {
+        //订阅重建完成频道，唤醒本节点上等待其他节点重建的线程
+        listenerContainer.addMessageListener(this::onRebuilt, new ChannelTopic(CACHE_REBUILT_CHANNEL));
     }
 
     /**
-     * 实现任意Java对象向redis中的存储
+     * 实现任意Java对象向redis中的存储，key前缀配置了过期策略时按策略的过期时间加上随机抖动
      * @param key 键
      * @param value 值
-     * @param time 时间
+     * @param time 时间，没有配置过期策略时使用
      * @param unit 时间单位
      */
     public void set(String key,Object value ,Long time ,TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(value),time,unit);
+        set(key,value,time,unit,null);
+    }
+
+    /**
+     * 写入查询数据库得到的数据，开启了版本号校验的key只有版本号与查询数据库之前读到的一致时才写入
+     * @param version 查询数据库之前读到的版本号，为null时不校验
+     * @return 是否写入
+     */
+    private boolean set(String key,Object value ,Long time ,TimeUnit unit,String version){
+        RedisData redisData=new RedisData();
+        redisData.setData(value);
+        long ttlMillis = cachePolicies.ttlMillis(key,unit.toMillis(time));
+        //按key前缀选择的编解码器编码后写入redis
+        if(!setRaw(key,cacheCodecs.encode(key,redisData),ttlMillis,version)){
+            return false;
+        }
+        //同步刷新本节点的一级缓存
+        putLocal(key,value,ttlMillis);
+        return true;
     }
 
     /**
@@ -51,12 +180,278 @@ public class CacheClient {
      * @param unit
      */
     public void setWithLogicalExpire(String key,Object value ,Long time ,TimeUnit unit){
+        setWithLogicalExpire(key,value,time,unit,null);
+    }
+
+    /**
+     * 实现任意Java对象向redis中的存储，并且加上逻辑过期时间，同时保存本次重建的耗时，供提前刷新策略使用
+     * @param key
+     * @param value
+     * @param time
+     * @param unit
+     * @param delta 重建耗时（毫秒），为null时不保存
+     */
+    public void setWithLogicalExpire(String key,Object value ,Long time ,TimeUnit unit,Long delta){
+        setWithLogicalExpire(key,value,time,unit,delta,null);
+    }
+
+    /**
+     * 按逻辑过期格式写入查询数据库得到的数据，开启了版本号校验的key只有版本号一致时才写入
+     * @param version 查询数据库之前读到的版本号，为null时不校验
+     * @return 是否写入
+     */
+    private boolean setWithLogicalExpire(String key,Object value ,Long time ,TimeUnit unit,Long delta,String version){
         //设置逻辑过期时间
         RedisData redisData=new RedisData();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        //写入redis
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(redisData));
+        long logicalMillis = cachePolicies.logicalExpireMillis(key,unit.toMillis(time));
+        redisData.setExpireTime(LocalDateTime.now().plus(Duration.ofMillis(logicalMillis)));
+        redisData.setDelta(delta);
+        //写入redis，逻辑过期时间保存在值中，redis中的key永不过期
+        if(!setRaw(key,cacheCodecs.encode(key,redisData),0,version)){
+            return false;
+        }
+        //记录逻辑过期时间，后台在过期之前刷新
+        if(isRefreshAhead(key)){
+            stringRedisTemplate.opsForZSet().add(CACHE_REFRESH_AHEAD_KEY,key,System.currentTimeMillis() + logicalMillis);
+        }
+        //同步刷新本节点的一级缓存，本地副本最多存活到逻辑过期时间
+        putLocal(key,redisData,logicalMillis);
+        return true;
+    }
+
+    /**
+     * 开启某个前缀的后台提前刷新，之后写入的逻辑过期key会记录逻辑过期时间，由RefreshAheadScheduler在过期之前刷新
+     * @param keyPrefix key前缀
+     */
+    public void enableRefreshAhead(String keyPrefix){
+        refreshAheadPrefixes.add(keyPrefix);
+    }
+
+    private boolean isRefreshAhead(String key){
+        for (String prefix : refreshAheadPrefixes) {
+            if(key.startsWith(prefix)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 后台批量刷新逻辑过期key：一次IN查询数据库，一次pipeline写回redis，并更新它们的逻辑过期时间记录；
+     * 数据库中已经不存在的数据删除缓存，不再刷新
+     * @param keyPrefix key前缀
+     * @param ids 要刷新的id
+     * @param dbBatchFallback 根据一批id查询数据库的逻辑
+     * @param idGetter 从查询结果中取出id
+     * @param time 逻辑过期时间
+     * @param unit 时间单位
+     * @return 刷新成功的key个数
+     */
+    public <R,ID> int refreshBatch(String keyPrefix, Collection<ID> ids, Function<Collection<ID>,List<R>> dbBatchFallback,
+                                   Function<R,ID> idGetter, Long time, TimeUnit unit){
+        if(ids == null || ids.isEmpty()){
+            return 0;
+        }
+        List<String> keys = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            keys.add(keyPrefix + id);
+        }
+        //1.查询数据库之前读取版本号，记录本批查询的耗时作为提前刷新策略的delta
+        Map<String,String> versions = readVersions(keys);
+        long begin = System.currentTimeMillis();
+        List<R> loaded = dbBatchFallback.apply(ids);
+        long delta = System.currentTimeMillis() - begin;
+        //2.按逻辑过期格式编码
+        Map<String,byte[]> toCache = new HashMap<>(loaded.size());
+        Map<String,Long> ttls = new HashMap<>(loaded.size());
+        Map<String,Long> expireAts = new HashMap<>(loaded.size());
+        for (R r : loaded) {
+            String key = keyPrefix + idGetter.apply(r);
+            long logicalMillis = cachePolicies.logicalExpireMillis(key,unit.toMillis(time));
+            RedisData redisData = new RedisData();
+            redisData.setData(r);
+            redisData.setExpireTime(LocalDateTime.now().plus(Duration.ofMillis(logicalMillis)));
+            redisData.setDelta(delta);
+            toCache.put(key,cacheCodecs.encode(key,redisData));
+            ttls.put(key,0L);
+            expireAts.put(key,System.currentTimeMillis() + logicalMillis);
+        }
+        //3.一次pipeline写回，版本号已经变化的key说明刚被修改，保留在待刷新集合中，租约到期后重新刷新
+        Set<String> rejected = toCache.isEmpty() ? Collections.emptySet() : setRawBatch(toCache,ttls,versions);
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>();
+        for (Map.Entry<String, Long> entry : expireAts.entrySet()) {
+            if(!rejected.contains(entry.getKey())){
+                tuples.add(new DefaultTypedTuple<>(entry.getKey(),entry.getValue().doubleValue()));
+                //本节点的一级缓存中可能还有旧的副本，直接删除，下次访问时从redis加载
+                localCache.invalidate(entry.getKey());
+            }
+        }
+        if(!tuples.isEmpty()){
+            stringRedisTemplate.opsForZSet().add(CACHE_REFRESH_AHEAD_KEY,tuples);
+        }
+        //4.数据库中已经不存在的数据，删除缓存并不再刷新
+        List<String> missing = new ArrayList<>();
+        for (String key : keys) {
+            if(!toCache.containsKey(key)){
+                missing.add(key);
+            }
+        }
+        if(!missing.isEmpty()){
+            evictBatch(missing);
+            stringRedisTemplate.opsForZSet().remove(CACHE_REFRESH_AHEAD_KEY,missing.toArray());
+        }
+        return tuples.size();
+    }
+
+    /**
+     * 删除缓存，同时通过redis的发布订阅通知所有节点删除各自的一级缓存
+     * 数据被修改后都应该调用该方法，而不是直接删除redis中的key；
+     * 开启了版本号校验的key同时递增版本号，修改之前就开始的缓存重建不会再把旧数据写回缓存
+     * @param key 键
+     */
+    public void evict(String key){
+        if(isVersioned(key)){
+            stringRedisTemplate.execute(EVICT_VERSIONED_SCRIPT, Arrays.asList(key, versionKeyOf(key)));
+        }else{
+            stringRedisTemplate.delete(key);
+        }
+        localCache.invalidate(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL,key);
+    }
+
+    /**
+     * 批量删除缓存，删除（开启版本号校验的key同时递增版本号）和删除本地缓存的通知通过一次pipeline完成
+     * @param keys 键
+     */
+    public void evictBatch(Collection<String> keys){
+        if(keys == null || keys.isEmpty()){
+            return;
+        }
+        byte[] script = rawKey(EVICT_VERSIONED_SCRIPT.getScriptAsString());
+        byte[] channel = rawKey(CACHE_INVALIDATE_CHANNEL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                if(isVersioned(key)){
+                    connection.scriptingCommands().eval(script, ReturnType.INTEGER, 2,
+                            rawKey(key), rawKey(versionKeyOf(key)));
+                }else{
+                    connection.keyCommands().del(rawKey(key));
+                }
+                connection.publish(channel, rawKey(key));
+            }
+            return null;
+        });
+        for (String key : keys) {
+            localCache.invalidate(key);
+        }
+    }
+
+    /**
+     * 在当前事务提交之后删除缓存，没有事务时立即删除。
+     * 在事务内删除缓存时，删除之后、提交之前的查询仍然读到旧数据，并把旧数据写回缓存
+     * @param key 键
+     */
+    public void evictAfterCommit(String key){
+        if(!TransactionSynchronizationManager.isSynchronizationActive()){
+            evict(key);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                evict(key);
+            }
+        });
+    }
+
+    /**
+     * 按key的访问热度自动选择缓存策略：
+     * 冷数据使用缓存空值的普通方案，温数据使用互斥锁方案，热点使用逻辑过期方案并由后台提前刷新；
+     * 热点的升级和取消由HotKeyDetector的访问计数决定，hmdp.cache.adaptive.overrides 中配置的前缀固定使用配置的策略
+     * @param keyPrefix 键的前缀
+     * @param id 根据id查询
+     * @param type 返回值类型
+     * @param dbFallback 查询数据库时的逻辑
+     * @param time 时间
+     * @param unit 时间单位
+     * @param timeoutFallback 互斥锁方案等待超时后的降级逻辑
+     * @return
+     * @param <R> 指定返回值类型
+     * @param <ID> 指定id类型
+     */
+    public <R,ID> R queryAdaptive(
+            String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit,
+            Function<ID,R> timeoutFallback){
+        adaptivePrefixes.add(keyPrefix);
+        CacheStrategy strategy = strategyFor(keyPrefix + id);
+        adaptiveCounts.get(strategy).incrementAndGet();
+        switch (strategy){
+            case PASS_THROUGH:
+                return queryWithPassThrough(keyPrefix,id,type,dbFallback,time,unit);
+            case LOGICAL_EXPIRE:
+                return queryWithLogicalExpire(keyPrefix,id,type,dbFallback,time,unit);
+            case EARLY_REFRESH:
+                return queryWithEarlyRefresh(keyPrefix,id,type,dbFallback,time,unit);
+            case MUTEX:
+            default:
+                return queryWithMutex(keyPrefix,id,type,dbFallback,time,unit,timeoutFallback);
+        }
+    }
+
+    /**
+     * 自适应策略为key选择的缓存策略
+     * @param key redis键
+     * @return 缓存策略，不会返回ADAPTIVE
+     */
+    public CacheStrategy strategyFor(String key){
+        //1.配置了固定策略的前缀，最长前缀优先
+        String matched = null;
+        for (String prefix : cacheProperties.getAdaptive().getOverrides().keySet()) {
+            if(key.startsWith(prefix) && (matched == null || prefix.length() > matched.length())){
+                matched = prefix;
+            }
+        }
+        CacheStrategy override = matched == null ? null : cacheProperties.getAdaptive().getOverrides().get(matched);
+        if(override != null && override != CacheStrategy.ADAPTIVE){
+            return override;
+        }
+        //2.热点使用逻辑过期，前提是该前缀注册了后台提前刷新，否则降温后的逻辑过期数据没有人清理
+        if(hotKeyDetector.isHot(key) && isRefreshAhead(key)){
+            return CacheStrategy.LOGICAL_EXPIRE;
+        }
+        //3.温数据使用互斥锁，冷数据缓存空值即可，不需要为很少访问的key竞争锁
+        return hotKeyDetector.qps(key) >= cacheProperties.getAdaptive().getWarmQps()
+                ? CacheStrategy.MUTEX : CacheStrategy.PASS_THROUGH;
+    }
+
+    /**
+     * 后台提前刷新时判断key是否还需要保持逻辑过期格式：自适应策略的key降温之后不再刷新
+     * @param key redis键
+     * @return false：key已经降温，应删除逻辑过期缓存，下次访问时按当前的策略重建
+     */
+    public boolean keepRefreshingAhead(String key){
+        for (String prefix : adaptivePrefixes) {
+            if(key.startsWith(prefix)){
+                CacheStrategy strategy = strategyFor(key);
+                return strategy == CacheStrategy.LOGICAL_EXPIRE || strategy == CacheStrategy.EARLY_REFRESH;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 自适应策略选择各个策略的次数
+     * @return 策略 -> 次数
+     */
+    public Map<String, Long> adaptiveStats(){
+        Map<String, Long> stats = new LinkedHashMap<>();
+        for (Map.Entry<CacheStrategy, AtomicLong> entry : adaptiveCounts.entrySet()) {
+            if(entry.getKey() != CacheStrategy.ADAPTIVE){
+                stats.put(entry.getKey().name(), entry.getValue().get());
+            }
+        }
+        return stats;
     }
 
     /**
@@ -75,35 +470,41 @@ public class CacheClient {
     public <R,ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit){
 
-        String key=keyPrefix+id;
-        //1.从redis中查询商铺缓存
-        String json=stringRedisTemplate.opsForValue().get(key);
-        //2.判断是否为null或空字符串
-        if(StringUtil.isNotBlank(json)){
-            //3.存在商铺缓存，直接返回
-            return JSONUtil.toBean(json,type);
-        }
-        //判断是否为 ""(空值)
-        if("".equals(json)){
-            //为空值,返回错误信息
+        //0.布隆过滤器判断id一定不存在，直接返回，不访问redis和数据库
+        if(!penetrationGuard.mightContain(keyPrefix,id)){
             return null;
         }
-        //4.json==null的情况，即缓存中不存在商铺缓存的情况，到数据库中查询
-        R r = dbFallback.apply(id);
-        //5.判断数据库中是否存在数据
-        if(r == null){
-            //5.1不存在该数据，缓存空值,并返回错误信息
-            stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL,TimeUnit.MINUTES);
-            return null;
+        String key=keyPrefix+id;
+        //统计访问频率，用于热点key探测
+        hotKeyDetector.record(key);
+        //1.从本地缓存和redis中查询商铺缓存
+        Object cached = lookup(key,type,unit.toMillis(time));
+        //2.判断是否命中，命中的可能是空值
+        if(cached != null){
+            //3.存在商铺缓存或空值，直接返回
+            return unwrap(cached,type);
         }
-        //5.2存在该数据，写入redis中
-        this.set(key,r,time,unit);
-        return r;
+        //4.缓存中不存在商铺缓存的情况，到数据库中查询；同一个JVM内同一个key只让一个线程去查数据库，其他线程共享结果
+        return singleFlight.execute(key, () -> {
+            //查询数据库之前读取版本号，写入时版本号已经变化说明期间数据被修改过，不再写入
+            String version = readVersion(key);
+            R r = dbFallback.apply(id);
+            //5.判断数据库中是否存在数据
+            if(r == null){
+                //5.1不存在该数据，缓存空值,并返回错误信息
+                setNull(key,version);
+                return null;
+            }
+            //5.2存在该数据，写入redis中
+            this.set(key,r,time,unit,version);
+            return r;
+        }, cacheProperties.getMutexWait().toMillis(), () -> dbFallback.apply(id));
     }
 
     /**
      *使用互斥锁方案，解决缓存击穿问题，顺带着解决了缓存穿透问题的查询方法
      * 真正安全的方法，完美解决高并发情境下的缓存击穿和缓存穿透，但是由于是悲观锁，所以效率较低
+     * 等待超过 hmdp.cache.mutex-wait 仍没有拿到结果时直接查询数据库，不能返回null，否则存在的数据会被当成不存在
      * @param keyPrefix 键的前缀
      * @param id 根据id查询
      * @param type 返回值类型
@@ -116,55 +517,574 @@ public class CacheClient {
      */
     public <R,ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        return queryWithMutex(keyPrefix,id,type,dbFallback,time,unit,dbFallback);
+    }
+
+    /**
+     * 使用互斥锁方案，解决缓存击穿问题，并且对同一个key的并发未命中做合并：
+     * 同一个JVM内只有一个线程去竞争redis互斥锁，其他线程等待它的结果；
+     * 竞争锁失败的线程不再休眠轮询，而是等待重建完成的通知（本地或其他节点发出）
+     * @param keyPrefix 键的前缀
+     * @param id 根据id查询
+     * @param type 返回值类型
+     * @param dbFallback 查询数据库时的逻辑
+     * @param time 时间
+     * @param unit 时间单位
+     * @param timeoutFallback 等待超过 hmdp.cache.mutex-wait 仍没有拿到结果时的降级逻辑
+     * @return
+     * @param <R> 指定返回值类型
+     * @param <ID> 指定id类型
+     */
+    public <R,ID> R queryWithMutex(
+            String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit,
+            Function<ID,R> timeoutFallback){
+        //0.布隆过滤器判断id一定不存在，直接返回，不访问redis和数据库
+        if(!penetrationGuard.mightContain(keyPrefix,id)){
+            return null;
+        }
         String key=keyPrefix+id;
-        //1.从redis中查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        //2.判断是否存在
-        if(StringUtil.isNotBlank(shopJson)){
+        //统计访问频率，用于热点key探测
+        hotKeyDetector.record(key);
+        //1.从本地缓存和redis中查询商铺缓存
+        Object cached = lookup(key,type,unit.toMillis(time));
+        //2.判断是否命中，命中的可能是空值
+        if(cached != null){
             //3.存在，直接返回
-            return JSONUtil.toBean(shopJson,type);
+            return unwrap(cached,type);
+        }
+        //4.未命中，实现缓存重建，同一个JVM内同一个key只有一个线程去竞争互斥锁，其他线程共享它的结果
+        long waitMillis = cacheProperties.getMutexWait().toMillis();
+        long deadline = System.currentTimeMillis() + waitMillis;
+        return singleFlight.execute(key,
+                () -> rebuildWithMutex(key,id,type,dbFallback,time,unit,deadline,timeoutFallback),
+                waitMillis, () -> timeoutFallback.apply(id));
+    }
+
+    /**
+     * 互斥锁方案中真正执行缓存重建的方法，每个JVM内同一个key同一时刻只有一个线程执行到这里
+     * @param deadline 最晚等待到的时间戳，超过后执行降级逻辑
+     */
+    private <R,ID> R rebuildWithMutex(
+            String key, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit,
+            long deadline, Function<ID,R> timeoutFallback){
+        String lockKey = lockKeyOf(key);
+        while (true) {
+            //4.1获取互斥锁
+            if(tryGetLock(lockKey)){
+                try {
+                    //5.成功获取锁，获取锁的线程执行缓存重建，但
+                    // 是有一种极端情况，就是另一个线程已经完成缓存重建，刚释放锁的情况，所以进行doubleCheck
+                    Object alreadyRebuild = lookup(key,type,unit.toMillis(time));
+                    if(alreadyRebuild != null){
+                        return unwrap(alreadyRebuild,type);
+                    }
+                    //5.1缓存还没有重建,先读取版本号再查询数据库
+                    String version = readVersion(key);
+                    R r = dbFallback.apply(id);
+                    //5.2数据库中不存在，将空值写入redis，返回错误
+                    if(r == null){
+                        setNull(key,version);
+                    }else{
+                        //5.3数据库中存在，写入redis，版本号已经变化时放弃写入，等待的线程会重新竞争锁并查询到新数据
+                        this.set(key,r,time,unit,version);
+                    }
+                    //5.4通知所有节点上正在等待该key的线程
+                    stringRedisTemplate.convertAndSend(CACHE_REBUILT_CHANNEL,key);
+                    return r;
+                } finally {
+                    //6.释放锁
+                    unlock(lockKey);
+                }
+            }
+            //4.2没有成功获取锁，说明其他节点正在重建，先登记等待信号，再查一次缓存，防止在登记之前重建就已经完成
+            CompletableFuture<Void> signal = rebuildSignals.computeIfAbsent(key, k -> new CompletableFuture<>());
+            Object cached = lookup(key,type,unit.toMillis(time));
+            if(cached != null){
+                return unwrap(cached,type);
+            }
+            //4.3等待重建完成的通知，最多等到deadline
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0){
+                rebuildSignals.remove(key,signal);
+                return timeoutFallback.apply(id);
+            }
+            try {
+                signal.get(remaining,TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                rebuildSignals.remove(key,signal);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rebuildSignals.remove(key,signal);
+                return timeoutFallback.apply(id);
+            }
+            //4.4被唤醒或超时后再查一次缓存，仍然未命中则回到4.1再次尝试获取锁（持有锁的节点可能已经宕机）
+            cached = lookup(key,type,unit.toMillis(time));
+            if(cached != null){
+                return unwrap(cached,type);
+            }
+            if(System.currentTimeMillis() >= deadline){
+                return timeoutFallback.apply(id);
+            }
+        }
+    }
+
+    /**
+     * 批量查询：一次MGET查询redis，只把未命中的id通过一次IN查询交给数据库，再通过一次pipeline写回redis，
+     * 返回结果与传入id的顺序一致，不存在的数据不会出现在结果中
+     * @param keyPrefix 键的前缀
+     * @param ids 要查询的id集合
+     * @param type 返回值类型
+     * @param dbBatchFallback 根据一批id查询数据库的逻辑，例如 ids -> listByIds(ids)
+     * @param idGetter 从查询结果中取出id，用于和传入的id对应
+     * @param time 时间
+     * @param unit 时间单位
+     * @return 与ids顺序一致的结果
+     * @param <R> 指定返回值类型
+     * @param <ID> 指定id类型
+     */
+    public <R,ID> List<R> queryBatch(
+            String keyPrefix, Collection<ID> ids, Class<R> type, Function<Collection<ID>,List<R>> dbBatchFallback,
+            Function<R,ID> idGetter, Long time, TimeUnit unit){
+        if(ids == null || ids.isEmpty()){
+            return Collections.emptyList();
+        }
+        long ttlMillis = unit.toMillis(time);
+        long nullTtlMillis = cachePolicies.nullTtlMillis(keyPrefix);
+        //1.先查本地一级缓存，布隆过滤器判断一定不存在的id直接跳过
+        Map<String,R> found = new HashMap<>(ids.size());
+        List<ID> remoteIds = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            if(!penetrationGuard.mightContain(keyPrefix,id)){
+                continue;
+            }
+            hotKeyDetector.record(keyPrefix + id);
+            Object cached = plainValue(getLocal(keyPrefix + id));
+            if(cached == null){
+                remoteIds.add(id);
+            }else if(cached != LocalCache.NULL_VALUE){
+                found.put(id.toString(),type.cast(cached));
+            }
+        }
+        //2.本地未命中的id，一次MGET查询redis
+        List<ID> missIds = new ArrayList<>();
+        if(!remoteIds.isEmpty()){
+            List<String> keys = new ArrayList<>(remoteIds.size());
+            for (ID id : remoteIds) {
+                keys.add(keyPrefix + id);
+            }
+            List<byte[]> values = multiGetRaw(keys);
+            for (int i = 0; i < remoteIds.size(); i++) {
+                byte[] raw = values == null ? null : values.get(i);
+                ID id = remoteIds.get(i);
+                if(raw == null){
+                    //redis中也不存在，需要查询数据库
+                    missIds.add(id);
+                }else if(raw.length == 0){
+                    //缓存的空值
+                    putLocal(keys.get(i),null,nullTtlMillis);
+                }else{
+                    RedisData entry = cacheCodecs.decode(raw,type);
+                    if(entry == null || isLogicallyExpired(entry)){
+                        //无法解码的旧数据、已经逻辑过期的数据，按未命中处理
+                        missIds.add(id);
+                        continue;
+                    }
+                    R r = type.cast(entry.getData());
+                    putLocal(keys.get(i),r,ttlMillis);
+                    found.put(id.toString(),r);
+                }
+            }
+        }
+        //3.redis中也未命中的id，一次IN查询数据库，并通过一次pipeline写回redis
+        if(!missIds.isEmpty()){
+            List<String> missKeys = new ArrayList<>(missIds.size());
+            for (ID id : missIds) {
+                missKeys.add(keyPrefix + id);
+            }
+            //查询数据库之前读取版本号
+            Map<String,String> versions = readVersions(missKeys);
+            List<R> loaded = dbBatchFallback.apply(missIds);
+            Map<String,byte[]> toCache = new HashMap<>(missIds.size());
+            //每个key单独计算过期时间，同一批写入的key带有不同的随机抖动，不会在同一时刻过期
+            Map<String,Long> ttls = new HashMap<>(missIds.size());
+            Map<String,Object> toLocal = new HashMap<>(missIds.size());
+            for (R r : loaded) {
+                String id = idGetter.apply(r).toString();
+                found.put(id,r);
+                RedisData redisData = new RedisData();
+                redisData.setData(r);
+                long keyTtl = cachePolicies.ttlMillis(keyPrefix + id,ttlMillis);
+                toCache.put(keyPrefix + id,cacheCodecs.encode(keyPrefix + id,redisData));
+                ttls.put(keyPrefix + id,keyTtl);
+                toLocal.put(keyPrefix + id,r);
+            }
+            for (ID id : missIds) {
+                if(!found.containsKey(id.toString())){
+                    //数据库中也不存在，缓存空值
+                    toCache.put(keyPrefix + id,new byte[0]);
+                    ttls.put(keyPrefix + id,nullTtlMillis);
+                    toLocal.put(keyPrefix + id,null);
+                }
+            }
+            //版本号已经变化的key没有写入redis，也不写入本地缓存
+            Set<String> rejected = setRawBatch(toCache,ttls,versions);
+            for (Map.Entry<String, Object> entry : toLocal.entrySet()) {
+                if(!rejected.contains(entry.getKey())){
+                    putLocal(entry.getKey(),entry.getValue(),ttls.get(entry.getKey()));
+                }
+            }
+        }
+        //4.按照传入id的顺序组装结果
+        List<R> result = new ArrayList<>(found.size());
+        for (ID id : ids) {
+            R r = found.get(id.toString());
+            if(r != null){
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量写入缓存，所有key通过一次pipeline写入，用于缓存预热。
+     * 不写入本地缓存，避免预热的大量数据挤掉真正的热点数据；
+     * 开启了版本号校验的key在写入前读取版本号，只能拦截读取版本号之后的修改，
+     * 查询数据库到读取版本号之间提交的修改仍可能被覆盖，预热只在启动时执行，这个窗口可以接受
+     * @param keyPrefix key前缀
+     * @param values 要缓存的对象
+     * @param idGetter 从对象中取出id
+     * @param time 过期时间，逻辑过期格式时为逻辑过期时间
+     * @param unit 时间单位
+     * @param logicalExpire true：按逻辑过期格式写入，redis中的key永不过期
+     * @param <R> 缓存对象类型
+     */
+    public <R> void setBatch(String keyPrefix, Collection<R> values, Function<R,?> idGetter,
+                             Long time, TimeUnit unit, boolean logicalExpire){
+        if(values == null || values.isEmpty()){
+            return;
+        }
+        Map<String,byte[]> toCache = new HashMap<>(values.size());
+        Map<String,Long> ttls = new HashMap<>(values.size());
+        Set<ZSetOperations.TypedTuple<String>> refreshAhead = new HashSet<>();
+        for (R r : values) {
+            String key = keyPrefix + idGetter.apply(r);
+            RedisData redisData = new RedisData();
+            redisData.setData(r);
+            if(logicalExpire){
+                //逻辑过期时间同样带有随机抖动，预热的数据不会在同一时刻逻辑过期
+                long logicalMillis = cachePolicies.logicalExpireMillis(key,unit.toMillis(time));
+                redisData.setExpireTime(LocalDateTime.now().plus(Duration.ofMillis(logicalMillis)));
+                ttls.put(key,0L);
+                if(isRefreshAhead(key)){
+                    refreshAhead.add(new DefaultTypedTuple<>(key,(double) (System.currentTimeMillis() + logicalMillis)));
+                }
+            }else{
+                ttls.put(key,cachePolicies.ttlMillis(key,unit.toMillis(time)));
+            }
+            toCache.put(key,cacheCodecs.encode(key,redisData));
+        }
+        Set<String> rejected = setRawBatch(toCache,ttls,readVersions(new ArrayList<>(toCache.keySet())));
+        //记录逻辑过期时间，后台在过期之前刷新
+        refreshAhead.removeIf(tuple -> rejected.contains(tuple.getValue()));
+        if(!refreshAhead.isEmpty()){
+            stringRedisTemplate.opsForZSet().add(CACHE_REFRESH_AHEAD_KEY,refreshAhead);
+        }
+    }
+
+    /**
+     * 先查本地一级缓存，再查redis，redis命中时顺便写入本地缓存
+     * @param key redis键
+     * @param type 返回值类型
+     * @param ttlMillis 写入本地缓存时的存活时间
+     * @return null：未命中；LocalCache.NULL_VALUE：命中空值；其他：命中的对象
+     */
+    private <R> Object lookup(String key,Class<R> type,long ttlMillis){
+        //先查询本地一级缓存
+        Object cached = plainValue(getLocal(key));
+        if(cached != null){
+            return cached;
+        }
+        byte[] raw = getRaw(key);
+        //raw == null 说明redis中不存在
+        if(raw == null){
+            return null;
         }
         //判断是否为空值（""）
-        if("".equals(shopJson)){
-            //是空值，返回错误
+        if(raw.length == 0){
+            putLocal(key,null,cachePolicies.nullTtlMillis(key));
+            return LocalCache.NULL_VALUE;
+        }
+        RedisData entry = cacheCodecs.decode(raw,type);
+        //无法解码的旧数据（类结构已经变化）、已经逻辑过期的数据（自适应策略降温之前写入的），按未命中处理，重建时会被覆盖
+        if(entry == null || isLogicallyExpired(entry)){
             return null;
         }
-        //4.shopJson == null 的情况，实现缓存重建
-        //4.1获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isGetLock = tryGetLock(lockKey);
-        R r= null;
-        try {
-            if(!isGetLock){
-                //4.2没有成功获取锁，那么该线程就无法获取锁了，线程休眠50毫秒后递归，继续尝试去redis中读取缓存，直到读到新缓存
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix,id,type,dbFallback,time,unit);
-            }
-            //5.成功获取锁，获取锁的线程执行缓存重建，但
-            // 是有一种极端情况，就是另一个线程已经完成缓存重建，刚释放锁的情况，所以进行doubleCheck
-            R alreadyRebuild = doubleCheckForMutex(key, type);
-            if(alreadyRebuild != null){
-                //System.out.println("缓存已经重建！");
-                return alreadyRebuild;
-            }
-            //5.1缓存还没有重建,查询数据库
-            r = dbFallback.apply(id);
-            //5.2数据库中不存在，返回错误
-            if(r == null){
-                //将空值写入redis
-                stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL,TimeUnit.MINUTES);
-                //返回错误信息
-                return null;
+        R r = type.cast(entry.getData());
+        putLocal(key,r,ttlMillis);
+        return r;
+    }
+
+    /**
+     * 把本地缓存中的逻辑过期格式转换为普通格式：未过期时取出数据，已过期按未命中处理
+     * @param cached 本地缓存中的值
+     * @return null：未命中；其他：与lookup的返回值相同
+     */
+    private Object plainValue(Object cached){
+        if(!(cached instanceof RedisData)){
+            return cached;
+        }
+        RedisData entry = (RedisData) cached;
+        return isLogicallyExpired(entry) ? null : entry.getData();
+    }
+
+    private static boolean isLogicallyExpired(RedisData entry){
+        return entry.getExpireTime() != null && !entry.getExpireTime().isAfter(LocalDateTime.now());
+    }
+
+    /**
+     * 查询渲染好的JSON，本地缓存中已有渲染结果时直接返回，不做任何解析和序列化；
+     * 否则通过loader查询对象（可以是任意一种缓存策略），渲染后与本地缓存中的对象一起保存
+     * @param key redis键，需要开启本地缓存，否则每次都会重新渲染
+     * @param loader 查询对象
+     * @param renderer 把对象渲染为JSON
+     * @return JSON，对象不存在时返回null
+     * @param <R> 对象类型
+     */
+    public <R> byte[] queryRendered(String key, Supplier<R> loader, Function<R,byte[]> renderer){
+        byte[] json = localCache.getRendered(key);
+        if(json != null){
+            hotKeyDetector.record(key);
+            return json;
+        }
+        R value = loader.get();
+        if(value == null){
+            return null;
+        }
+        json = renderer.apply(value);
+        localCache.putRendered(key,value,json);
+        return json;
+    }
+
+    /**
+     * 以字节形式读取redis中的值，交给编解码器解码
+     * @param key redis键
+     * @return null：不存在
+     */
+    private byte[] getRaw(String key){
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(rawKey(key)));
+    }
+
+    /**
+     * 以字节形式批量读取redis中的值（MGET）
+     * @param keys redis键
+     * @return 与keys顺序一致的值，不存在的为null
+     */
+    private List<byte[]> multiGetRaw(List<String> keys){
+        byte[][] rawKeys = new byte[keys.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            rawKeys[i] = rawKey(keys.get(i));
+        }
+        return stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                connection.stringCommands().mGet(rawKeys));
+    }
+
+    /**
+     * 以字节形式写入redis
+     * @param key redis键
+     * @param value 编码后的值
+     * @param ttlMillis 过期时间，小于等于0表示永不过期
+     */
+    private void setRaw(String key,byte[] value,long ttlMillis){
+        Expiration expiration = ttlMillis > 0 ? Expiration.milliseconds(ttlMillis) : Expiration.persistent();
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.stringCommands().set(rawKey(key),value,expiration,RedisStringCommands.SetOption.upsert()));
+    }
+
+    /**
+     * 以字节形式写入redis，version不为null时通过脚本比较版本号，一致才写入
+     * @param key redis键
+     * @param value 编码后的值
+     * @param ttlMillis 过期时间，小于等于0表示永不过期
+     * @param version 查询数据库之前读到的版本号
+     * @return 是否写入
+     */
+    private boolean setRaw(String key,byte[] value,long ttlMillis,String version){
+        if(version == null){
+            setRaw(key,value,ttlMillis);
+            return true;
+        }
+        Long result = stringRedisTemplate.execute(SET_VERSIONED_SCRIPT, RedisSerializer.byteArray(),
+                new GenericToStringSerializer<>(Long.class), Arrays.asList(key, versionKeyOf(key)),
+                value, rawKey(version), rawKey(String.valueOf(ttlMillis)));
+        if(result == null || result != 1L){
+            log.debug("缓存{}的版本号已经变化，放弃写入查询到的旧数据",key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 以字节形式批量写入redis，通过一次pipeline完成
+     * @param values redis键 -> 编码后的值
+     * @param ttls redis键 -> 过期时间（毫秒），小于等于0表示永不过期
+     * @param versions redis键 -> 查询数据库之前读到的版本号，没有版本号的key直接写入
+     * @return 因为版本号变化而没有写入的key
+     */
+    private Set<String> setRawBatch(Map<String,byte[]> values,Map<String,Long> ttls,Map<String,String> versions){
+        List<String> keys = new ArrayList<>(values.keySet());
+        byte[] script = rawKey(SET_VERSIONED_SCRIPT.getScriptAsString());
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                long ttlMillis = ttls.get(key);
+                String version = versions.get(key);
+                if(version != null){
+                    connection.scriptingCommands().eval(script, ReturnType.INTEGER, 2,
+                            rawKey(key), rawKey(versionKeyOf(key)), values.get(key),
+                            rawKey(version), rawKey(String.valueOf(ttlMillis)));
+                    continue;
+                }
+                Expiration expiration = ttlMillis > 0 ? Expiration.milliseconds(ttlMillis) : Expiration.persistent();
+                connection.stringCommands().set(rawKey(key),values.get(key),
+                        expiration, RedisStringCommands.SetOption.upsert());
             }
-            //5.3数据库中存在，写入redis
-            this.set(key,r,time,unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            //6.释放锁
-            unlock(lockKey);
+            return null;
+        });
+        Set<String> rejected = new HashSet<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if(versions.containsKey(keys.get(i)) && !Long.valueOf(1L).equals(results.get(i))){
+                rejected.add(keys.get(i));
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * key是否开启了版本号校验
+     */
+    private boolean isVersioned(String key){
+        for (String prefix : cacheProperties.getVersionedPrefixes()) {
+            if(key.startsWith(prefix)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 每个缓存key对应的版本号key
+     */
+    private static String versionKeyOf(String key){
+        return "{" + key + "}" + CACHE_VERSION_SUFFIX;
+    }
+
+    /**
+     * 查询数据库之前读取版本号，版本号key不存在时为"0"
+     * @param key 缓存key
+     * @return 版本号，key没有开启版本号校验时返回null
+     */
+    private String readVersion(String key){
+        if(!isVersioned(key)){
+            return null;
+        }
+        String version = stringRedisTemplate.opsForValue().get(versionKeyOf(key));
+        return version == null ? "0" : version;
+    }
+
+    /**
+     * 批量读取版本号（MGET），只包含开启了版本号校验的key
+     * @param keys 缓存key
+     * @return 缓存key -> 版本号
+     */
+    private Map<String,String> readVersions(List<String> keys){
+        List<String> versioned = new ArrayList<>();
+        for (String key : keys) {
+            if(isVersioned(key)){
+                versioned.add(key);
+            }
+        }
+        if(versioned.isEmpty()){
+            return Collections.emptyMap();
+        }
+        List<String> versionKeys = new ArrayList<>(versioned.size());
+        for (String key : versioned) {
+            versionKeys.add(versionKeyOf(key));
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(versionKeys);
+        Map<String,String> versions = new HashMap<>(versioned.size());
+        for (int i = 0; i < versioned.size(); i++) {
+            String version = values == null ? null : values.get(i);
+            versions.put(versioned.get(i),version == null ? "0" : version);
+        }
+        return versions;
+    }
+
+    private static byte[] rawKey(String key){
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 把lookup的结果转换为返回值，空值转换为null
+     */
+    private <R> R unwrap(Object cached,Class<R> type){
+        return cached == LocalCache.NULL_VALUE ? null : type.cast(cached);
+    }
+
+    /**
+     * 缓存空值，解决缓存穿透，version不为null时只有版本号一致才写入
+     * @param key redis键
+     * @param version 查询数据库之前读到的版本号
+     */
+    private void setNull(String key,String version){
+        long nullTtlMillis = cachePolicies.nullTtlMillis(key);
+        if(setRaw(key,new byte[0],nullTtlMillis,version)){
+            putLocal(key,null,nullTtlMillis);
+        }
+    }
+
+    /**
+     * 收到重建完成的通知，唤醒本节点上等待该key的线程
+     */
+    private void onRebuilt(Message message, byte[] pattern){
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        CompletableFuture<Void> signal = rebuildSignals.remove(key);
+        if(signal != null){
+            signal.complete(null);
+        }
+    }
+
+    /**
+     * 每个缓存key对应的互斥锁名称
+     */
+    private String lockKeyOf(String key){
+        return LOCK_KEY_PREFIX + key;
+    }
+
+    /**
+     * 查询本地一级缓存，key没有开启本地缓存时直接返回null
+     * @param key redis键
+     * @return null：本地没有缓存；LocalCache.NULL_VALUE：缓存的空值；其他：缓存的对象
+     */
+    private Object getLocal(String key){
+        if(!localCache.isEnabled(key) && !hotKeyDetector.isHot(key)){
+            return null;
+        }
+        return localCache.get(key);
+    }
+
+    /**
+     * 写入本地一级缓存，key没有开启本地缓存时什么也不做；
+     * 热点key即使没有开启本地缓存，也保存一份短存活时间的副本
+     * @param key redis键
+     * @param value 值，为null表示缓存空值
+     * @param ttlMillis 存活时间
+     */
+    private void putLocal(String key,Object value,long ttlMillis){
+        if(localCache.isEnabled(key)){
+            localCache.put(key,value,ttlMillis);
+        }else if(hotKeyDetector.isHot(key)){
+            localCache.put(key,value,Math.min(ttlMillis,hotKeyDetector.replicaTtlMillis()));
         }
-        return  r;
     }
 
     /**
@@ -203,27 +1123,59 @@ public class CacheClient {
      */
     public <R,ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        //布隆过滤器判断id一定不存在，直接返回，不访问redis
+        if(!penetrationGuard.mightContain(keyPrefix,id)){
+            return null;
+        }
         String key=keyPrefix+id;
+        //统计访问频率，用于热点key探测
+        hotKeyDetector.record(key);
+        //0.先查询本地一级缓存，本地缓存的是data已经反序列化好的RedisData，未逻辑过期就直接返回
+        Object cached = getLocal(key);
+        if(cached instanceof RedisData){
+            RedisData localData = (RedisData) cached;
+            if(localData.getExpireTime().isAfter(LocalDateTime.now())){
+                return type.cast(localData.getData());
+            }
+        }
         //1.向redis中查询商铺缓存
-        String json=stringRedisTemplate.opsForValue().get(key);
-        //2.判断是否存在，这里是肯定存在的，因为我们先进行了缓存的预热
-        if(StringUtil.isBlank(json)){
-            //3.不存在，返回错误
+        byte[] raw=getRaw(key);
+        //2.判断是否是缓存的空值
+        if(raw != null && raw.length == 0){
+            //3.数据不存在
             return null;
         }
-        //4.命中，需要先把json序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        //4.命中，解码为对象，二进制格式的逻辑过期时间在头部，不需要二次解析
+        RedisData redisData = raw == null ? null : cacheCodecs.decode(raw, type);
+        if(redisData == null || redisData.getExpireTime() == null){
+            //4.1没有预热、无法解码的旧数据或不是逻辑过期格式的数据，同一个key只有一个线程查询数据库，并按逻辑过期格式写入
+            return singleFlight.execute(key, () -> {
+                String version = readVersion(key);
+                R fresh = dbFallback.apply(id);
+                if(fresh == null){
+                    setNull(key,version);
+                }else{
+                    this.setWithLogicalExpire(key,fresh,time,unit,null,version);
+                }
+                return fresh;
+            }, cacheProperties.getMutexWait().toMillis(), () -> dbFallback.apply(id));
+        }
+        R r = type.cast(redisData.getData());
         //5.判断是否逻辑过期
         LocalDateTime expireTime = redisData.getExpireTime();
         if(expireTime.isAfter(LocalDateTime.now())){
-            //5.1 未过期，直接返回商铺信息
+            //5.1 未过期，放入本地缓存，最多存活到逻辑过期时间，然后返回商铺信息
+            putLocal(key,redisData,Duration.between(LocalDateTime.now(),expireTime).toMillis());
             return r;
         }
         //5.2已过期，需要缓存重建
+        //本节点已有该key的重建任务，直接返回旧数据，不再竞争锁
+        if(rebuildScheduler.isPending(key)){
+            return r;
+        }
         //6.缓存重建
         //6.1获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
+        String lockKey = lockKeyOf(key);
         boolean isGetLock = tryGetLock(lockKey);
         //6.2判断获取锁是否成功
         if(isGetLock){
@@ -235,43 +1187,30 @@ public class CacheClient {
                 System.out.println("缓存已经重建！");
                 return check;
             }
-            //仍需要进行缓存重建
-           CACHE_REBUILD_EXECUTOR.submit(()->{
-               try {
-                   //查询数据库
-                   R newR = dbFallback.apply(id);
-                   //重建缓存
-                   this.setWithLogicalExpire(key,newR,time,unit);
-               } catch (Exception e) {
-                   throw new RuntimeException(e);
-               } finally {
-                   unlock(lockKey);
-               }
-
-           });
-        }
-        //6.4返回过期的店铺信息
-        return r;
-    }
-
-    /**
-     * 为互斥锁方案解决缓存击穿的方法提供的方法，用于检查缓存中的数据是否已经被更新
-     * @param key redis键
-     * @return null：再次检验后发现仍需更新，r：再次检查后发现无需再更新缓存
-     */
-    private <R> R doubleCheckForMutex(String key,Class<R> type){
-        //向redis中查询商铺缓存
-        String value = stringRedisTemplate.opsForValue().get(key);
-        //当value == null 时说明，缓存中仍然没有数据
-        if (value == null){
-            return null;
-        }
-        //当缓存中是""或者有值时，说明缓存已经进行了重建。
-        if ("".equals(value)) {
-            //这里return null并不完美，我们的本意是，当有空字符串时，意味着缓存已经重建，且为空对象，是不想让缓存再次重建的
-            return null;
+            //仍需要进行缓存重建，异常由调度器记录
+            boolean accepted = rebuildScheduler.submit(key, () -> {
+                try {
+                    //查询数据库，查询之前读取版本号
+                    String version = readVersion(key);
+                    R newR = dbFallback.apply(id);
+                    //重建缓存，版本号已经变化说明数据刚被修改并删除了缓存，下一次查询会重新加载
+                    if(newR == null){
+                        //数据已经被删除，写入空值，否则过期的旧数据会一直被返回
+                        setNull(key,version);
+                    }else{
+                        this.setWithLogicalExpire(key,newR,time,unit,null,version);
+                    }
+                } finally {
+                    unlock(lockKey);
+                }
+            });
+            //6.4重建队列已满，释放锁，本次继续返回旧数据，后续请求会再次尝试
+            if(!accepted){
+                unlock(lockKey);
+            }
         }
-        return JSONUtil.toBean(value,type);
+        //6.5返回过期的店铺信息
+        return r;
     }
 
     /**
@@ -281,25 +1220,151 @@ public class CacheClient {
      */
     private <R> R doubleCheckForLogicalExpire(String key, Class<R> type){
         //向redis中查询商铺缓存
-        String json=stringRedisTemplate.opsForValue().get(key);
+        byte[] raw=getRaw(key);
         //判断是否存在，这里是肯定存在的，因为我们先进行了缓存的预热
-        if(StringUtil.isBlank(json)){
+        if(raw == null || raw.length == 0){
             //不存在，返回错误
             throw new RuntimeException("商品信息不存在，请确认是否预热过商铺信息！");
         }
-        //命中，需要先把json序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+        //命中，解码为对象
+        RedisData redisData = cacheCodecs.decode(raw, type);
 
         //判断是否逻辑过期
-        LocalDateTime expireTime = redisData.getExpireTime();
-        if(expireTime.isAfter(LocalDateTime.now())){
+        LocalDateTime expireTime = redisData == null ? null : redisData.getExpireTime();
+        if(expireTime != null && expireTime.isAfter(LocalDateTime.now())){
             //5.1 未过期，直接返回商铺信息
-            R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-            return r;
+            return type.cast(redisData.getData());
         }
         //已过期，需要缓存重建
         return null;
     }
 
+    /**
+     * 逻辑过期 + 概率提前刷新（XFetch）：缓存中同时保存逻辑过期时间和上一次重建的耗时delta，
+     * 每次读取时按 now - delta * beta * ln(random) >= expireTime 判断是否需要提前刷新，
+     * 越接近过期、重建越慢，提前刷新的概率越大。热点key会在过期之前被某一个请求平滑地刷新，
+     * 不会出现所有请求在过期的同一时刻竞争锁、并且在重建完成前一直返回过期数据的情况
+     * @param keyPrefix key前缀
+     * @param id 查询的id
+     * @param type 返回值类型
+     * @param dbFallback 查询数据库的函数
+     * @param time 逻辑过期时间
+     * @param unit 时间单位
+     * @return 缓存中的数据，需要刷新时返回旧数据，刷新在后台线程中进行
+     */
+    public <R,ID> R queryWithEarlyRefresh(
+            String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        //布隆过滤器判断id一定不存在，直接返回，不访问redis
+        if(!penetrationGuard.mightContain(keyPrefix,id)){
+            return null;
+        }
+        String key=keyPrefix+id;
+        //统计访问频率，用于热点key探测
+        hotKeyDetector.record(key);
+        //1.先查询本地一级缓存，再查询redis，本地缓存命中同样需要判断是否提前刷新，否则热点key永远不会提前刷新
+        RedisData redisData;
+        Object cached = getLocal(key);
+        if(cached instanceof RedisData){
+            redisData = (RedisData) cached;
+        }else{
+            byte[] raw=getRaw(key);
+            redisData = raw == null || raw.length == 0 ? null : cacheCodecs.decode(raw, type);
+            if(redisData == null || redisData.getExpireTime() == null){
+                //2.缓存不存在（未预热）或无法解码，同步加载，同一个key只有一个线程查询数据库
+                return singleFlight.execute(key,
+                        () -> refresh(key,id,dbFallback,time,unit),
+                        cacheProperties.getMutexWait().toMillis(),
+                        () -> dbFallback.apply(id));
+            }
+            if(redisData.getExpireTime().isAfter(LocalDateTime.now())){
+                putLocal(key,redisData,Duration.between(LocalDateTime.now(),redisData.getExpireTime()).toMillis());
+            }
+        }
+        R r = type.cast(redisData.getData());
+        //3.判断是否需要刷新
+        boolean expired = !redisData.getExpireTime().isAfter(LocalDateTime.now());
+        if(!expired && !shouldRefreshEarly(redisData)){
+            return r;
+        }
+        //4.需要刷新，获取互斥锁，同一时刻只有一个线程在刷新
+        if(rebuildScheduler.isPending(key)){
+            return r;
+        }
+        String lockKey = lockKeyOf(key);
+        if(!tryGetLock(lockKey)){
+            refreshLockBusyCount.incrementAndGet();
+            return r;
+        }
+        LocalDateTime seenExpireTime = redisData.getExpireTime();
+        boolean accepted = rebuildScheduler.submit(key, () -> {
+            try {
+                //刷新前再检查一次，过期时间已经变化说明其他节点刚刚完成了刷新
+                byte[] latest = getRaw(key);
+                RedisData current = latest == null || latest.length == 0 ? null : cacheCodecs.decode(latest, type);
+                if(current != null && current.getExpireTime() != null && current.getExpireTime().isAfter(seenExpireTime)){
+                    refreshDiscardedCount.incrementAndGet();
+                    return;
+                }
+                refresh(key,id,dbFallback,time,unit);
+            } finally {
+                unlock(lockKey);
+            }
+        });
+        if(!accepted){
+            //重建队列已满，释放锁，继续返回当前数据
+            unlock(lockKey);
+            return r;
+        }
+        (expired ? expiredRefreshCount : earlyRefreshCount).incrementAndGet();
+        //5.返回当前的数据，刷新完成后的请求会读到新数据
+        return r;
+    }
+
+    /**
+     * 查询数据库并写入逻辑过期缓存，记录本次查询数据库的耗时作为delta
+     */
+    private <R,ID> R refresh(String key, ID id, Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        String version = readVersion(key);
+        long begin = System.currentTimeMillis();
+        R newR = dbFallback.apply(id);
+        long delta = System.currentTimeMillis() - begin;
+        if(newR == null){
+            //数据已经被删除，写入空值，否则过期的旧数据会一直被返回
+            setNull(key,version);
+        }else{
+            this.setWithLogicalExpire(key,newR,time,unit,delta,version);
+        }
+        return newR;
+    }
+
+    /**
+     * XFetch的判断：now - delta * beta * ln(random) >= expireTime，random取(0,1]，ln(random) <= 0
+     * @param redisData 缓存条目
+     * @return 是否需要提前刷新
+     */
+    private boolean shouldRefreshEarly(RedisData redisData){
+        Long delta = redisData.getDelta();
+        if(delta == null || delta <= 0){
+            return false;
+        }
+        double gap = -delta * cacheProperties.getEarlyRefresh().getBeta()
+                * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        long expireAt = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return System.currentTimeMillis() + gap >= expireAt;
+    }
+
+    /**
+     * 提前刷新策略的统计信息
+     * @return 各项计数
+     */
+    public Map<String, Long> earlyRefreshStats(){
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("earlyRefresh", earlyRefreshCount.get());
+        stats.put("expiredRefresh", expiredRefreshCount.get());
+        stats.put("lockBusy", refreshLockBusyCount.get());
+        stats.put("discarded", refreshDiscardedCount.get());
+        return stats;
+    }
+
 
 }
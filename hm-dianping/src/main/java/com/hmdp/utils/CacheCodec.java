@@ -0,0 +1,38 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值的编解码器，决定了对象以什么格式保存在redis中。
+ * 普通缓存和逻辑过期缓存都用RedisData表示：expireTime为null表示普通缓存，不为null表示逻辑过期缓存
+ */
+public interface CacheCodec {
+
+    /**
+     * 判断该编解码器能否编码这种类型的对象
+     * @param type 缓存对象的类型
+     * @return true：可以编码
+     */
+    boolean supports(Class<?> type);
+
+    /**
+     * 判断一段redis中读出的字节是否由该编解码器编码
+     * @param bytes redis中的值，不为空
+     * @return true：可以解码
+     */
+    boolean canDecode(byte[] bytes);
+
+    /**
+     * 编码缓存条目
+     * @param entry 缓存条目，data不为null
+     * @return 写入redis的字节
+     */
+    byte[] encode(RedisData entry);
+
+    /**
+     * 解码缓存条目
+     * @param bytes redis中的值，不为空
+     * @param type 缓存对象的类型
+     * @return data为反序列化后的对象；无法解码时（例如类结构已经变化）返回null，调用方按未命中处理
+     * @param <R> 缓存对象的类型
+     */
+    <R> RedisData decode(byte[] bytes, Class<R> type);
+}
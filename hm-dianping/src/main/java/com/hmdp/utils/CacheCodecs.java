@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 编解码器的选择：写入时按key前缀选择编解码器（hmdp.cache.codecs），没有配置的前缀使用可读的JSON；
+ * 读取时根据字节头部自动识别，因此切换某个前缀的编解码器后，旧格式的数据仍然可以正常读取
+ */
+@Component
+public class CacheCodecs {
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+
+    private final CompactBinaryCodec binaryCodec = new CompactBinaryCodec();
+
+    private final Map<String, CacheCodec> codecsByName = new HashMap<>();
+
+    private final CacheProperties cacheProperties;
+
+    public CacheCodecs(CacheProperties cacheProperties) {
+        this.cacheProperties = cacheProperties;
+        codecsByName.put(JsonCacheCodec.NAME, jsonCodec);
+        codecsByName.put(CompactBinaryCodec.NAME, binaryCodec);
+    }
+
+    /**
+     * 按key选择编码时使用的编解码器，多个前缀都匹配时取最长的前缀
+     * @param key redis键
+     * @return 编解码器
+     */
+    public CacheCodec codecFor(String key) {
+        String matched = null;
+        for (String prefix : cacheProperties.getCodecs().keySet()) {
+            if (key.startsWith(prefix) && (matched == null || prefix.length() > matched.length())) {
+                matched = prefix;
+            }
+        }
+        if (matched == null) {
+            return jsonCodec;
+        }
+        CacheCodec codec = codecsByName.get(cacheProperties.getCodecs().get(matched));
+        return codec == null ? jsonCodec : codec;
+    }
+
+    /**
+     * 编码缓存条目，选中的编解码器不支持该类型时（例如集合）退回JSON
+     * @param key redis键
+     * @param entry 缓存条目
+     * @return 写入redis的字节
+     */
+    public byte[] encode(String key, RedisData entry) {
+        CacheCodec codec = codecFor(key);
+        if (!codec.supports(entry.getData().getClass())) {
+            codec = jsonCodec;
+        }
+        return codec.encode(entry);
+    }
+
+    /**
+     * 解码缓存条目，根据字节头部识别编解码器
+     * @param bytes redis中的值，不为空
+     * @param type 缓存对象的类型
+     * @return 缓存条目，无法解码时返回null
+     */
+    public <R> RedisData decode(byte[] bytes, Class<R> type) {
+        CacheCodec codec = binaryCodec.canDecode(bytes) ? binaryCodec : jsonCodec;
+        return codec.decode(bytes, type);
+    }
+}
@@ -0,0 +1,212 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.utils.RedisConstants.LOCK_KEY_PREFIX;
+
+/**
+ * 把缓存本地消息表中的事件投递到redis：
+ * 1.按id顺序每次取一批，通过一次pipeline执行，成功后删除这一批消息；
+ * 2.投递失败时只给这一批的第一条消息记一次重试，并按指数退避（有上限）暂停投递，之后从同一条消息开始整批重试；
+ * 3.消息不会被跳过，一直重试直到投递成功，暂停期间不会投递后面的消息，保证同一个key上的操作不乱序；
+ * 4.删除缓存的事件在投递成功后延迟一段时间再删除一次（延迟双删），清除第一次删除后被并发请求写回的旧数据；
+ * 5.多个节点通过分布式锁保证同一时刻只有一个节点在投递
+ */
+@Slf4j
+@Component
+public class CacheOutboxRelay {
+
+    private static final String RELAY_LOCK_KEY = LOCK_KEY_PREFIX + "cacheOutbox";
+
+    private final CacheOutboxMapper cacheOutboxMapper;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final CacheClient cacheClient;
+
+    private final RedissonClient redissonClient;
+
+    private final CacheProperties.Outbox properties;
+    /**
+     * 投递线程，同时执行延迟的第二次删除
+     */
+    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+            ThreadFactoryBuilder.create().setNamePrefix("cache-outbox-").build());
+    /**
+     * 是否已经有排队中的投递任务，多次唤醒只执行一次
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /**
+     * 投递失败后暂停到的时间戳
+     */
+    private volatile long pausedUntil;
+
+    public CacheOutboxRelay(CacheOutboxMapper cacheOutboxMapper, StringRedisTemplate stringRedisTemplate,
+                            CacheClient cacheClient, RedissonClient redissonClient, CacheProperties cacheProperties) {
+        this.cacheOutboxMapper = cacheOutboxMapper;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheClient = cacheClient;
+        this.redissonClient = redissonClient;
+        this.properties = cacheProperties.getOutbox();
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * 唤醒投递线程，业务事务提交后调用
+     */
+    public void wakeup() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * 定时轮询，兜底事务提交后没有唤醒成功、其他节点写入的消息以及失败后的重试
+     */
+    @Scheduled(fixedDelayString = "#{@cacheProperties.outbox.pollInterval.toMillis()}")
+    public void poll() {
+        wakeup();
+    }
+
+    private void drain() {
+        scheduled.set(false);
+        if (System.currentTimeMillis() < pausedUntil) {
+            return;
+        }
+        RLock lock = redissonClient.getLock(RELAY_LOCK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            //一批取满说明可能还有积压，继续投递下一批
+            while (relayBatch() >= properties.getBatchSize()) {
+                if (System.currentTimeMillis() < pausedUntil) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("投递缓存消息失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 投递一批消息
+     * @return 本批消息条数
+     */
+    private int relayBatch() {
+        //1.按id顺序取出一批消息
+        List<CacheOutbox> events = cacheOutboxMapper.selectList(new QueryWrapper<CacheOutbox>()
+                .orderByAsc("id")
+                .last("limit " + properties.getBatchSize()));
+        if (events.isEmpty()) {
+            return 0;
+        }
+        List<Long> ids = new ArrayList<>(events.size());
+        Set<String> evictKeys = new LinkedHashSet<>();
+        List<CacheOutbox> commands = new ArrayList<>(events.size());
+        for (CacheOutbox event : events) {
+            ids.add(event.getId());
+            if (CacheOutbox.TYPE_EVICT.equals(event.getType())) {
+                evictKeys.add(event.getCacheKey());
+            } else {
+                commands.add(event);
+            }
+        }
+        try {
+            //2.集合操作通过一次pipeline执行，删除缓存通过CacheClient批量执行（同时递增版本号、通知各节点删除本地缓存）
+            if (!commands.isEmpty()) {
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (CacheOutbox event : commands) {
+                        execute(connection, event);
+                    }
+                    return null;
+                });
+            }
+            cacheClient.evictBatch(evictKeys);
+        } catch (Exception e) {
+            //3.投递失败，只在第一条消息（阻塞后面消息的那一条）上记录重试次数，按指数退避暂停投递；
+            //集合操作和删除都是幂等的，整批重试不会有副作用
+            CacheOutbox head = events.get(0);
+            int retries = head.getRetries() + 1;
+            long backoff = Math.min(properties.getRetryBackoff().toMillis() << Math.min(retries - 1, 20),
+                    properties.getMaxBackoff().toMillis());
+            pausedUntil = System.currentTimeMillis() + backoff;
+            cacheOutboxMapper.update(null, new UpdateWrapper<CacheOutbox>()
+                    .setSql("retries = retries + 1").eq("id", head.getId()));
+            log.warn("投递{}条缓存消息失败，{}ms后重试，第{}次", events.size(), backoff, retries, e);
+            return 0;
+        }
+        //4.投递成功，删除这一批消息
+        cacheOutboxMapper.deleteBatchIds(ids);
+        //5.延迟双删
+        if (!evictKeys.isEmpty()) {
+            executor.schedule(() -> redelete(evictKeys), properties.getRedeleteDelay().toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return events.size();
+    }
+
+    private void execute(RedisConnection connection, CacheOutbox event) {
+        byte[] key = bytes(event.getCacheKey());
+        byte[] member = bytes(event.getMember());
+        switch (event.getType()) {
+            case CacheOutbox.TYPE_SADD:
+                connection.setCommands().sAdd(key, member);
+                break;
+            case CacheOutbox.TYPE_SREM:
+                connection.setCommands().sRem(key, member);
+                break;
+            case CacheOutbox.TYPE_ZADD:
+                connection.zSetCommands().zAdd(key, event.getScore(), member);
+                break;
+            case CacheOutbox.TYPE_ZREM:
+                connection.zSetCommands().zRem(key, member);
+                break;
+            default:
+                log.error("未知的缓存消息类型：{}", event);
+        }
+    }
+
+    /**
+     * 第二次删除，失败只记录日志，第一次删除已经成功
+     */
+    private void redelete(Set<String> keys) {
+        try {
+            cacheClient.evictBatch(keys);
+        } catch (Exception e) {
+            log.warn("延迟删除缓存失败：{}", keys, e);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,132 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 缓存过期策略的注册表：按RedisConstants中的key前缀注册默认策略，再用application.yaml中
+ * hmdp.cache.policies的配置覆盖。CacheClient写入缓存时按key查询策略，给过期时间加上随机抖动，
+ * 防止批量预热或redis重启后同一批key在同一时刻过期，集中访问数据库（缓存雪崩）
+ */
+@Component
+public class CachePolicies {
+
+    private final CacheProperties cacheProperties;
+
+    /**
+     * key前缀 -> 合并后的策略
+     */
+    private final Map<String, CacheProperties.Policy> policies = new HashMap<>();
+
+    public CachePolicies(CacheProperties cacheProperties) {
+        this.cacheProperties = cacheProperties;
+    }
+
+    @PostConstruct
+    private void init() {
+        //1.默认策略，抖动范围取基础过期时间的十分之一
+        register(CACHE_SHOP_KEY, Duration.ofMinutes(CACHE_SHOP_TTL));
+        register(CACHE_USER_KEY, Duration.ofMinutes(CACHE_USER_TTL));
+        register(CACHE_BLOG_KEY, Duration.ofMinutes(CACHE_BLOG_TTL));
+        register(CACHE_SHOP_TYPE_KEY, Duration.ofMinutes(CACHE_SHOP_TYPE_TTL));
+        register(CACHE_USER_INFO_KEY, Duration.ofMinutes(CACHE_USER_INFO_TTL));
+        register(CACHE_SHOP_VOUCHER_KEY, Duration.ofMinutes(CACHE_SHOP_VOUCHER_TTL));
+        //2.配置文件中的策略覆盖默认值
+        cacheProperties.getPolicies().forEach((prefix, configured) -> {
+            CacheProperties.Policy policy = policies.computeIfAbsent(prefix, p -> new CacheProperties.Policy());
+            if (configured.getTtl() != null) {
+                policy.setTtl(configured.getTtl());
+            }
+            if (configured.getJitter() != null) {
+                policy.setJitter(configured.getJitter());
+            }
+            if (configured.getNullTtl() != null) {
+                policy.setNullTtl(configured.getNullTtl());
+            }
+            if (configured.getLogicalExpire() != null) {
+                policy.setLogicalExpire(configured.getLogicalExpire());
+            }
+        });
+    }
+
+    private void register(String prefix, Duration ttl) {
+        CacheProperties.Policy policy = new CacheProperties.Policy();
+        policy.setTtl(ttl);
+        policy.setJitter(ttl.dividedBy(10));
+        policy.setNullTtl(Duration.ofMinutes(CACHE_NULL_TTL));
+        policy.setLogicalExpire(ttl);
+        policies.put(prefix, policy);
+    }
+
+    /**
+     * 普通缓存的过期时间（已加上随机抖动）
+     * @param key redis键
+     * @param defaultMillis 没有配置策略时使用的过期时间，即调用方传入的过期时间
+     * @return 过期时间（毫秒）
+     */
+    public long ttlMillis(String key, long defaultMillis) {
+        CacheProperties.Policy policy = policyFor(key);
+        if (policy == null) {
+            return defaultMillis;
+        }
+        return withJitter(policy.getTtl() == null ? defaultMillis : policy.getTtl().toMillis(), policy);
+    }
+
+    /**
+     * 逻辑过期方案中的逻辑过期时间（已加上随机抖动）
+     * @param key redis键
+     * @param defaultMillis 没有配置策略时使用的逻辑过期时间
+     * @return 逻辑过期时间（毫秒）
+     */
+    public long logicalExpireMillis(String key, long defaultMillis) {
+        CacheProperties.Policy policy = policyFor(key);
+        if (policy == null) {
+            return defaultMillis;
+        }
+        return withJitter(policy.getLogicalExpire() == null ? defaultMillis : policy.getLogicalExpire().toMillis(), policy);
+    }
+
+    /**
+     * 空值的过期时间，空值本身存活时间很短，不加抖动
+     * @param key redis键
+     * @return 过期时间（毫秒）
+     */
+    public long nullTtlMillis(String key) {
+        CacheProperties.Policy policy = policyFor(key);
+        if (policy == null || policy.getNullTtl() == null) {
+            return Duration.ofMinutes(CACHE_NULL_TTL).toMillis();
+        }
+        return policy.getNullTtl().toMillis();
+    }
+
+    /**
+     * 按key查询策略，多个前缀都匹配时取最长的前缀
+     * @param key redis键
+     * @return 策略，没有匹配的前缀时返回null
+     */
+    public CacheProperties.Policy policyFor(String key) {
+        String matched = null;
+        for (String prefix : policies.keySet()) {
+            if (key.startsWith(prefix) && (matched == null || prefix.length() > matched.length())) {
+                matched = prefix;
+            }
+        }
+        return matched == null ? null : policies.get(matched);
+    }
+
+    private long withJitter(long baseMillis, CacheProperties.Policy policy) {
+        Duration jitter = policy.getJitter();
+        if (jitter == null || jitter.isZero() || jitter.isNegative()) {
+            return baseMillis;
+        }
+        return baseMillis + ThreadLocalRandom.current().nextLong(jitter.toMillis() + 1);
+    }
+}
@@ -0,0 +1,169 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步重建缓存的调度器，替代原来CacheClient中无界队列的静态线程池：
+ * 1.同一个key同一时刻最多只有一个排队或执行中的重建任务；
+ * 2.等待的任务数有上限，队列满时拒绝，调用方释放锁并继续返回旧数据，大量key同时过期时队列不会无限增长；
+ * 3.队列按key的访问频率排序，越热的key越先重建；
+ * 4.重建中的异常在这里统一记录，并统计队列长度、执行中的任务数和重建耗时
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    private final ThreadPoolExecutor executor;
+    /**
+     * 队列中的空位，任务开始执行时归还
+     */
+    private final Semaphore queueSlots;
+    /**
+     * 排队或执行中的key
+     */
+    private final Map<String, RebuildTask> pending = new ConcurrentHashMap<>();
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong deduplicatedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public CacheRebuildScheduler(CacheProperties cacheProperties, HotKeyDetector hotKeyDetector) {
+        CacheProperties.Rebuild properties = cacheProperties.getRebuild();
+        this.hotKeyDetector = hotKeyDetector;
+        this.queueSlots = new Semaphore(properties.getQueueCapacity());
+        //队列本身不限长度，长度由queueSlots控制；PriorityBlockingQueue要求任务可比较，所以只能用execute提交
+        this.executor = new ThreadPoolExecutor(properties.getThreads(), properties.getThreads(),
+                60, TimeUnit.SECONDS, new PriorityBlockingQueue<>(),
+                ThreadFactoryBuilder.create().setNamePrefix("cache-rebuild-").build());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * 提交重建任务
+     * @param key 重建的redis键
+     * @param rebuild 重建逻辑，需要在finally中释放自己获取的锁
+     * @return true：已提交；false：该key已有重建任务或者队列已满，rebuild不会执行，调用方需要自行释放锁
+     */
+    public boolean submit(String key, Runnable rebuild) {
+        RebuildTask task = new RebuildTask(key, rebuild, hotKeyDetector.frequency(key), sequence.incrementAndGet());
+        if (pending.putIfAbsent(key, task) != null) {
+            deduplicatedCount.incrementAndGet();
+            return false;
+        }
+        if (!queueSlots.tryAcquire()) {
+            pending.remove(key, task);
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            //线程池已关闭
+            queueSlots.release();
+            pending.remove(key, task);
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        submittedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 判断key是否已有排队或执行中的重建任务，有的话调用方不需要再去竞争锁
+     * @param key redis键
+     * @return true：已有任务
+     */
+    public boolean isPending(String key) {
+        return pending.containsKey(key);
+    }
+
+    /**
+     * 调度器的运行状态
+     * @return 各项指标
+     */
+    public Map<String, Object> stats() {
+        long completed = completedCount.get() + failedCount.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("active", executor.getActiveCount());
+        stats.put("pendingKeys", pending.size());
+        stats.put("submitted", submittedCount.get());
+        stats.put("deduplicated", deduplicatedCount.get());
+        stats.put("rejected", rejectedCount.get());
+        stats.put("completed", completedCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("avgWaitMillis", completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / completed));
+        stats.put("avgLatencyMillis", completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos.get() / completed));
+        stats.put("maxLatencyMillis", TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get()));
+        return stats;
+    }
+
+    /**
+     * 重建任务，访问频率高的先执行，频率相同时先提交的先执行
+     */
+    private class RebuildTask implements Runnable, Comparable<RebuildTask> {
+        private final String key;
+        private final Runnable rebuild;
+        private final long priority;
+        private final long seq;
+        private final long createNanos = System.nanoTime();
+
+        RebuildTask(String key, Runnable rebuild, long priority, long seq) {
+            this.key = key;
+            this.rebuild = rebuild;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            queueSlots.release();
+            long begin = System.nanoTime();
+            totalWaitNanos.addAndGet(begin - createNanos);
+            try {
+                rebuild.run();
+                completedCount.incrementAndGet();
+            } catch (Throwable e) {
+                failedCount.incrementAndGet();
+                log.error("重建缓存失败，key={}", key, e);
+            } finally {
+                long latency = System.nanoTime() - begin;
+                totalLatencyNanos.addAndGet(latency);
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+                pending.remove(key, this);
+            }
+        }
+
+        @Override
+        public int compareTo(RebuildTask other) {
+            int c = Long.compare(other.priority, priority);
+            return c != 0 ? c : Long.compare(seq, other.seq);
+        }
+    }
+}
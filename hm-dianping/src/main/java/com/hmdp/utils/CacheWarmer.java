@@ -0,0 +1,247 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.IShopTypeService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 启动时的缓存预热：店铺类型列表、秒杀库存、按id游标流式读取tb_shop，
+ * 由多个线程并行通过pipeline批量写入店铺缓存和店铺的GEO索引。
+ * 作为ApplicationRunner执行，SpringApplication在所有ApplicationRunner执行完之后才会发布
+ * ReadinessState.ACCEPTING_TRAFFIC，因此预热完成（或超时）之前节点不会被判定为就绪
+ */
+@Slf4j
+@Component
+public class CacheWarmer implements ApplicationRunner {
+
+    /**
+     * 每写入多少批店铺输出一次进度日志
+     */
+    private static final int LOG_EVERY_BATCHES = 10;
+
+    private final CacheProperties.Warmup properties;
+
+    private final CacheClient cacheClient;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ShopMapper shopMapper;
+
+    private final SeckillVoucherMapper seckillVoucherMapper;
+
+    private final IShopTypeService shopTypeService;
+
+    private volatile String status = "PENDING";
+    private volatile long beginMillis;
+    private volatile long endMillis;
+    private final AtomicLong shops = new AtomicLong();
+    private final AtomicLong geoMembers = new AtomicLong();
+    private final AtomicLong seckillStocks = new AtomicLong();
+    private final AtomicInteger batches = new AtomicInteger();
+    private final AtomicInteger failedBatches = new AtomicInteger();
+
+    public CacheWarmer(CacheProperties cacheProperties, CacheClient cacheClient, StringRedisTemplate stringRedisTemplate,
+                       ShopMapper shopMapper, SeckillVoucherMapper seckillVoucherMapper, IShopTypeService shopTypeService) {
+        this.properties = cacheProperties.getWarmup();
+        this.cacheClient = cacheClient;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.shopMapper = shopMapper;
+        this.seckillVoucherMapper = seckillVoucherMapper;
+        this.shopTypeService = shopTypeService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws InterruptedException {
+        if (!properties.isEnabled()) {
+            status = "DISABLED";
+            return;
+        }
+        //预热在独立的线程中进行，启动线程最多等待timeout，超时后不再阻塞启动
+        ExecutorService coordinator = Executors.newSingleThreadExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("cache-warmup-main-").build());
+        CompletableFuture<Void> future = CompletableFuture.runAsync(this::warmup, coordinator);
+        coordinator.shutdown();
+        try {
+            future.get(properties.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("缓存预热超过{}仍未完成，节点开始接收流量，预热在后台继续：{}", properties.getTimeout(), progress());
+        } catch (ExecutionException e) {
+            //预热失败不影响启动，未预热的数据在第一次访问时从数据库加载
+            log.error("缓存预热失败：{}", progress(), e.getCause());
+        }
+    }
+
+    private void warmup() {
+        status = "RUNNING";
+        beginMillis = System.currentTimeMillis();
+        try {
+            //1.店铺类型，数据量很小，直接复用查询逻辑，缓存不存在时会写入
+            shopTypeService.getTypeList();
+            //2.秒杀库存
+            warmSeckillStock();
+            //3.店铺缓存和GEO索引
+            warmShops();
+            status = failedBatches.get() == 0 ? "DONE" : "DONE_WITH_ERRORS";
+        } catch (RuntimeException e) {
+            status = "FAILED";
+            throw e;
+        } finally {
+            endMillis = System.currentTimeMillis();
+            log.info("缓存预热结束：{}", progress());
+        }
+    }
+
+    /**
+     * 把未结束的秒杀券库存和秒杀时间写入redis。使用SETNX，redis中已经存在的库存是下单扣减后的最新值，
+     * 数据库中的库存由异步下单更新，可能落后于redis，不能覆盖；
+     * 已经分桶的秒杀券库存在各个桶中，不写入 seckill:stock:{id}
+     */
+    private void warmSeckillStock() {
+        List<SeckillVoucher> vouchers = seckillVoucherMapper.selectList(
+                new QueryWrapper<SeckillVoucher>().gt("end_time", LocalDateTime.now()));
+        if (vouchers.isEmpty()) {
+            return;
+        }
+        List<Object> buckets = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (SeckillVoucher voucher : vouchers) {
+                conn.hGet(SECKILL_VOUCHER_KEY + voucher.getVoucherId(), SeckillVoucherWindows.FIELD_BUCKETS);
+            }
+            return null;
+        });
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < vouchers.size(); i++) {
+                SeckillVoucher voucher = vouchers.get(i);
+                Object bucketCount = buckets.get(i);
+                if (bucketCount == null || Integer.parseInt(bucketCount.toString()) <= 1) {
+                    conn.setNX(SECKILL_STOCK_KEY + voucher.getVoucherId(), voucher.getStock().toString());
+                }
+                //秒杀时间以数据库为准，直接覆盖
+                conn.hMSet(SECKILL_VOUCHER_KEY + voucher.getVoucherId(),
+                        SeckillVoucherWindows.toHash(voucher.getBeginTime(), voucher.getEndTime()));
+            }
+            return null;
+        });
+        seckillStocks.addAndGet(vouchers.size());
+    }
+
+    /**
+     * 按id游标分批读取tb_shop，每批交给写入线程池，写入线程池的并发批次有上限，避免读取过快占用过多内存
+     */
+    private void warmShops() {
+        int workerCount = Math.max(1, properties.getWorkers());
+        ExecutorService workers = Executors.newFixedThreadPool(workerCount,
+                ThreadFactoryBuilder.create().setNamePrefix("cache-warmup-").build());
+        Semaphore inFlight = new Semaphore(workerCount * 2);
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Shop> batch = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .gt("id", lastId).orderByAsc("id").last("LIMIT " + properties.getBatchSize()));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                lastId = batch.get(batch.size() - 1).getId();
+                inFlight.acquireUninterruptibly();
+                workers.submit(() -> {
+                    try {
+                        writeShops(batch);
+                    } catch (Exception e) {
+                        failedBatches.incrementAndGet();
+                        log.error("店铺缓存预热失败，id范围：{} - {}", batch.get(0).getId(), batch.get(batch.size() - 1).getId(), e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+        }
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 写入一批店铺：店铺缓存一次pipeline，按类型分组的GEO索引一次pipeline
+     */
+    private void writeShops(List<Shop> batch) {
+        //1.店铺缓存
+        cacheClient.setBatch(CACHE_SHOP_KEY, batch, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES, properties.isLogicalExpire());
+        //2.GEO索引，GEOADD对已存在的member只更新坐标，可以重复执行
+        Map<Long, List<Shop>> byType = batch.stream()
+                .filter(shop -> shop.getX() != null && shop.getY() != null)
+                .collect(Collectors.groupingBy(Shop::getTypeId));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Map.Entry<Long, List<Shop>> entry : byType.entrySet()) {
+                List<RedisGeoCommands.GeoLocation<String>> locations = new ArrayList<>(entry.getValue().size());
+                for (Shop shop : entry.getValue()) {
+                    locations.add(new RedisGeoCommands.GeoLocation<>(shop.getId().toString(), new Point(shop.getX(), shop.getY())));
+                }
+                conn.geoAdd(SHOP_GEO_KEY + entry.getKey(), locations);
+            }
+            return null;
+        });
+        shops.addAndGet(batch.size());
+        geoMembers.addAndGet(byType.values().stream().mapToInt(List::size).sum());
+        int done = batches.incrementAndGet();
+        if (done % LOG_EVERY_BATCHES == 0) {
+            log.info("缓存预热进度：{}", progress());
+        }
+    }
+
+    /**
+     * 预热的进度和吞吐量
+     * @return 各项指标
+     */
+    public Map<String, Object> progress() {
+        long end = endMillis > 0 ? endMillis : System.currentTimeMillis();
+        long elapsed = beginMillis > 0 ? end - beginMillis : 0;
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("status", status);
+        progress.put("shops", shops.get());
+        progress.put("geoMembers", geoMembers.get());
+        progress.put("seckillStocks", seckillStocks.get());
+        progress.put("batches", batches.get());
+        progress.put("failedBatches", failedBatches.get());
+        progress.put("elapsedMillis", elapsed);
+        progress.put("shopsPerSecond", elapsed > 0 ? shops.get() * 1000 / elapsed : 0);
+        return progress;
+    }
+}
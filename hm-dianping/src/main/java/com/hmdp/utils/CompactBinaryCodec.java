@@ -0,0 +1,368 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑的二进制编解码器，按字段逐个写入，不保存字段名，整数使用变长编码。
+ * 格式：魔数(1) + 版本(1) + 标志位(1) + 类结构哈希(4) + [逻辑过期时间戳(8)] + [重建耗时(变长)] + 各字段。
+ * 逻辑过期时间保存在固定的头部中，读取时不需要像JSON那样先解析RedisData再解析一次data。
+ * 类结构（字段名和类型）发生变化后，旧数据的结构哈希不再匹配，解码返回null，按缓存未命中处理
+ */
+public class CompactBinaryCodec implements CacheCodec {
+
+    public static final String NAME = "binary";
+
+    private static final byte MAGIC = (byte) 0xB1;
+    private static final byte VERSION = 1;
+    private static final int FLAG_LOGICAL_EXPIRE = 1;
+    private static final int FLAG_DELTA = 2;
+
+    /**
+     * 每个类对应的字段结构，第一次编解码时通过反射解析后缓存
+     */
+    private final ConcurrentHashMap<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean supports(Class<?> type) {
+        if (type.isPrimitive() || type.isArray() || type.isEnum() || type.isInterface()
+                || Modifier.isAbstract(type.getModifiers()) || type.getName().startsWith("java.")) {
+            return false;
+        }
+        try {
+            type.getDeclaredConstructor();
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(RedisData entry) {
+        Object value = entry.getData();
+        Schema schema = schemaOf(value.getClass());
+        Writer writer = new Writer(128);
+        //1.头部
+        writer.writeByte(MAGIC);
+        writer.writeByte(VERSION);
+        boolean logical = entry.getExpireTime() != null;
+        boolean hasDelta = logical && entry.getDelta() != null;
+        writer.writeByte((logical ? FLAG_LOGICAL_EXPIRE : 0) | (hasDelta ? FLAG_DELTA : 0));
+        writer.writeInt(schema.hash);
+        if (logical) {
+            writer.writeLong(entry.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+        if (hasDelta) {
+            writer.writeVarLong(entry.getDelta());
+        }
+        //2.各字段
+        try {
+            for (FieldCodec field : schema.fields) {
+                field.write(writer, value);
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("无法读取字段：" + value.getClass().getName(), e);
+        }
+        return writer.toByteArray();
+    }
+
+    @Override
+    public <R> RedisData decode(byte[] bytes, Class<R> type) {
+        Reader reader = new Reader(bytes);
+        Schema schema = schemaOf(type);
+        try {
+            //1.头部
+            if (reader.readByte() != MAGIC || reader.readByte() != VERSION) {
+                return null;
+            }
+            int flags = reader.readByte();
+            if (reader.readInt() != schema.hash) {
+                //类结构已经变化，旧数据无法解码
+                return null;
+            }
+            RedisData redisData = new RedisData();
+            if ((flags & FLAG_LOGICAL_EXPIRE) != 0) {
+                redisData.setExpireTime(LocalDateTime.ofInstant(
+                        Instant.ofEpochMilli(reader.readLong()), ZoneId.systemDefault()));
+            }
+            if ((flags & FLAG_DELTA) != 0) {
+                redisData.setDelta(reader.readVarLong());
+            }
+            //2.各字段
+            Object value = schema.constructor.newInstance();
+            for (FieldCodec field : schema.fields) {
+                field.read(reader, value);
+            }
+            redisData.setData(type.cast(value));
+            return redisData;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("无法创建对象：" + type.getName(), e);
+        } catch (RuntimeException e) {
+            //数据被截断或不是本编码写入的，按接口约定返回null，调用方按未命中处理
+            return null;
+        }
+    }
+
+    private Schema schemaOf(Class<?> type) {
+        return schemas.computeIfAbsent(type, Schema::new);
+    }
+
+    /**
+     * 一个类的字段结构：按字段名排序，保证不同节点上的顺序一致
+     */
+    private static class Schema {
+        private final Constructor<?> constructor;
+        private final List<FieldCodec> fields = new ArrayList<>();
+        private final int hash;
+
+        Schema(Class<?> type) {
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(type.getName() + "缺少无参构造函数，不能使用二进制编码", e);
+            }
+            List<Field> all = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                all.addAll(Arrays.asList(c.getDeclaredFields()));
+            }
+            all.sort(Comparator.comparing(Field::getName));
+            StringBuilder signature = new StringBuilder(type.getName());
+            for (Field field : all) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                    continue;
+                }
+                field.setAccessible(true);
+                fields.add(new FieldCodec(field));
+                signature.append(';').append(field.getName()).append(':').append(field.getType().getName());
+            }
+            hash = signature.toString().hashCode();
+        }
+    }
+
+    /**
+     * 单个字段的读写，包装类型和对象类型先写一个字节表示是否为null
+     */
+    private static class FieldCodec {
+        private final Field field;
+        private final Class<?> type;
+        private final boolean primitive;
+
+        FieldCodec(Field field) {
+            this.field = field;
+            this.type = field.getType();
+            this.primitive = type.isPrimitive();
+        }
+
+        void write(Writer w, Object target) throws IllegalAccessException {
+            Object v = field.get(target);
+            if (!primitive) {
+                if (v == null) {
+                    w.writeByte(0);
+                    return;
+                }
+                w.writeByte(1);
+            }
+            if (type == Long.class || type == long.class) {
+                w.writeVarLong((Long) v);
+            } else if (type == Integer.class || type == int.class) {
+                w.writeVarLong((Integer) v);
+            } else if (type == String.class) {
+                w.writeString((String) v);
+            } else if (type == Double.class || type == double.class) {
+                w.writeLong(Double.doubleToRawLongBits((Double) v));
+            } else if (type == Boolean.class || type == boolean.class) {
+                w.writeByte((Boolean) v ? 1 : 0);
+            } else if (type == LocalDateTime.class) {
+                LocalDateTime time = (LocalDateTime) v;
+                w.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+                w.writeVarLong(time.getNano());
+            } else if (type == LocalDate.class) {
+                w.writeVarLong(((LocalDate) v).toEpochDay());
+            } else if (type == Short.class || type == short.class) {
+                w.writeVarLong((Short) v);
+            } else if (type == Byte.class || type == byte.class) {
+                w.writeByte((Byte) v);
+            } else if (type == Float.class || type == float.class) {
+                w.writeInt(Float.floatToRawIntBits((Float) v));
+            } else if (type == Character.class || type == char.class) {
+                w.writeVarLong((Character) v);
+            } else if (type == BigDecimal.class) {
+                w.writeString(v.toString());
+            } else {
+                //其他类型的字段（集合、嵌套对象等）退化为JSON字符串
+                w.writeString(JSONUtil.toJsonStr(v));
+            }
+        }
+
+        void read(Reader r, Object target) throws IllegalAccessException {
+            if (!primitive && r.readByte() == 0) {
+                return;
+            }
+            Object v;
+            if (type == Long.class || type == long.class) {
+                v = r.readVarLong();
+            } else if (type == Integer.class || type == int.class) {
+                v = (int) r.readVarLong();
+            } else if (type == String.class) {
+                v = r.readString();
+            } else if (type == Double.class || type == double.class) {
+                v = Double.longBitsToDouble(r.readLong());
+            } else if (type == Boolean.class || type == boolean.class) {
+                v = r.readByte() != 0;
+            } else if (type == LocalDateTime.class) {
+                long seconds = r.readVarLong();
+                v = LocalDateTime.ofEpochSecond(seconds, (int) r.readVarLong(), ZoneOffset.UTC);
+            } else if (type == LocalDate.class) {
+                v = LocalDate.ofEpochDay(r.readVarLong());
+            } else if (type == Short.class || type == short.class) {
+                v = (short) r.readVarLong();
+            } else if (type == Byte.class || type == byte.class) {
+                v = r.readByte();
+            } else if (type == Float.class || type == float.class) {
+                v = Float.intBitsToFloat(r.readInt());
+            } else if (type == Character.class || type == char.class) {
+                v = (char) r.readVarLong();
+            } else if (type == BigDecimal.class) {
+                v = new BigDecimal(r.readString());
+            } else {
+                v = JSONUtil.toBean(r.readString(), field.getGenericType(), false);
+            }
+            field.set(target, v);
+        }
+    }
+
+    /**
+     * 可扩容的字节写入器
+     */
+    private static class Writer {
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + n));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            for (int i = 3; i >= 0; i--) {
+                buf[pos++] = (byte) (v >>> (i * 8));
+            }
+        }
+
+        void writeLong(long v) {
+            ensure(8);
+            for (int i = 7; i >= 0; i--) {
+                buf[pos++] = (byte) (v >>> (i * 8));
+            }
+        }
+
+        /**
+         * zigzag变长编码，小的正负数都只占1~2个字节
+         */
+        void writeVarLong(long v) {
+            long zigzag = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((zigzag & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buf[pos++] = (byte) zigzag;
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    /**
+     * 字节读取器
+     */
+    private static class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        byte readByte() {
+            return buf[pos++];
+        }
+
+        int readInt() {
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        long readLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.CACHE_HOT_KEY_CHANNEL;
+
+/**
+ * 热点key探测。CacheClient每次读取缓存时调用record()，用滑动窗口的Count-Min Sketch统计访问频率，
+ * 单个节点上的QPS超过阈值后判定为热点，通过redis的发布订阅通知所有节点。
+ * 热点key即使所在前缀没有开启本地缓存，也会在每个节点上保存一份短存活时间的本地副本，读取不再访问redis；
+ * 发现热点的节点在热度持续期间不断续期，QPS回落或续期停止后自动取消热点
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    private static final String PROMOTE = "hot";
+    private static final String DEMOTE = "cold";
+
+    private final CacheProperties.HotKey properties;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final LocalCache localCache;
+
+    private final SlidingWindowSketch sketch;
+    /**
+     * 当前所有节点上的热点key -> 热点信息，包括本节点发现的和其他节点通知的
+     */
+    private final Map<String, HotKey> hotKeys = new ConcurrentHashMap<>();
+    /**
+     * 本节点发现的热点key，由本节点负责续期和取消
+     */
+    private final Map<String, Boolean> detectedHere = new ConcurrentHashMap<>();
+
+    public HotKeyDetector(CacheProperties cacheProperties, StringRedisTemplate stringRedisTemplate,
+                          RedisMessageListenerContainer listenerContainer, LocalCache localCache) {
+        this.properties = cacheProperties.getHotKey();
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.localCache = localCache;
+        this.sketch = new SlidingWindowSketch(properties.getBuckets(), 4, properties.getSketchWidth());
+    }
+
+    @PostConstruct
+    private void init() {
+        //订阅热点key频道，接收所有节点（也包括自己）发现的热点和取消通知
+        listenerContainer.addMessageListener(this::onMessage, new ChannelTopic(CACHE_HOT_KEY_CHANNEL));
+    }
+
+    /**
+     * 记录一次访问，QPS超过阈值时升级为热点并通知所有节点
+     * @param key redis键
+     */
+    public void record(String key) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        long count = sketch.increment(key);
+        if (count < thresholdCount() || detectedHere.containsKey(key) || detectedHere.size() >= properties.getMaxHotKeys()) {
+            return;
+        }
+        if (detectedHere.putIfAbsent(key, Boolean.TRUE) == null) {
+            long qps = qpsOf(count);
+            log.info("发现热点key：{}，QPS：{}", key, qps);
+            publish(PROMOTE, key, qps);
+        }
+    }
+
+    /**
+     * 判断key当前是否是热点
+     * @param key redis键
+     * @return true：是热点，需要保存本地副本
+     */
+    public boolean isHot(String key) {
+        HotKey hotKey = hotKeys.get(key);
+        return hotKey != null && hotKey.leaseUntil > System.currentTimeMillis();
+    }
+
+    /**
+     * key在当前窗口内的估计访问次数，用于给热点key的缓存重建更高的优先级
+     * @param key redis键
+     * @return 估计访问次数
+     */
+    public long frequency(String key) {
+        return properties.isEnabled() ? sketch.estimate(key) : 0;
+    }
+
+    /**
+     * key在本节点上的估计QPS，用于自适应选择缓存策略
+     * @param key redis键
+     * @return 估计QPS
+     */
+    public long qps(String key) {
+        return qpsOf(frequency(key));
+    }
+
+    /**
+     * 热点key本地副本的存活时间
+     */
+    public long replicaTtlMillis() {
+        return properties.getReplicaTtl().toMillis();
+    }
+
+    /**
+     * 当前的热点key，按QPS从高到低排序
+     * @return 热点key -> QPS
+     */
+    public Map<String, Long> hotKeys() {
+        List<Map.Entry<String, HotKey>> entries = new ArrayList<>(hotKeys.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<String, HotKey> e) -> e.getValue().qps).reversed());
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, HotKey> entry : entries) {
+            if (entry.getValue().leaseUntil > System.currentTimeMillis()) {
+                result.put(entry.getKey(), entry.getValue().qps);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 滑动窗口，并对本节点发现的热点续期或取消，清理续期已经停止的热点
+     */
+    @Scheduled(fixedRateString = "#{@cacheProperties.hotKey.window.toMillis() / @cacheProperties.hotKey.buckets}")
+    public void tick() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        sketch.advance();
+        //1.本节点发现的热点：QPS仍然较高的续期，回落的取消
+        long demoteCount = (long) (thresholdCount() * properties.getDemoteRatio());
+        for (String key : detectedHere.keySet()) {
+            long count = sketch.estimate(key);
+            if (count < demoteCount) {
+                detectedHere.remove(key);
+                log.info("取消热点key：{}", key);
+                publish(DEMOTE, key, qpsOf(count));
+            } else {
+                publish(PROMOTE, key, qpsOf(count));
+            }
+        }
+        //2.续期停止（发现它的节点下线或者消息丢失）的热点自动过期
+        long now = System.currentTimeMillis();
+        hotKeys.entrySet().removeIf(entry -> {
+            if (entry.getValue().leaseUntil > now) {
+                return false;
+            }
+            demoteLocal(entry.getKey());
+            return true;
+        });
+    }
+
+    private void onMessage(Message message, byte[] pattern) {
+        //消息格式：类型|QPS|key，key中可能包含|以外的任意字符
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|", 3);
+        if (parts.length != 3) {
+            return;
+        }
+        String key = parts[2];
+        if (PROMOTE.equals(parts[0])) {
+            //续期时间取两个窗口，续期消息偶尔丢失一次不会取消热点
+            long leaseUntil = System.currentTimeMillis() + properties.getWindow().toMillis() * 2;
+            hotKeys.put(key, new HotKey(Long.parseLong(parts[1]), leaseUntil));
+        } else if (DEMOTE.equals(parts[0]) && hotKeys.remove(key) != null) {
+            demoteLocal(key);
+        }
+    }
+
+    /**
+     * 取消热点时删除仅因为热点才保存的本地副本，开启了本地缓存的前缀保留
+     */
+    private void demoteLocal(String key) {
+        if (!localCache.isEnabled(key)) {
+            localCache.invalidate(key);
+        }
+    }
+
+    private void publish(String type, String key, long qps) {
+        stringRedisTemplate.convertAndSend(CACHE_HOT_KEY_CHANNEL, type + "|" + qps + "|" + key);
+    }
+
+    /**
+     * 阈值QPS换算成整个窗口内的访问次数
+     */
+    private long thresholdCount() {
+        return properties.getThreshold() * properties.getWindow().toMillis() / 1000;
+    }
+
+    private long qpsOf(long count) {
+        return count * 1000 / properties.getWindow().toMillis();
+    }
+
+    private static class HotKey {
+        private final long qps;
+        private final long leaseUntil;
+
+        HotKey(long qps, long leaseUntil) {
+            this.qps = qps;
+            this.leaseUntil = leaseUntil;
+        }
+    }
+}
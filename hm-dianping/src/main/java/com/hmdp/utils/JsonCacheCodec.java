@@ -0,0 +1,79 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 基于hutool JSON的编解码器，redis中保存的是可读的JSON，格式与引入编解码器之前完全一致：
+ * 普通缓存直接保存对象的JSON，逻辑过期缓存保存RedisData的JSON
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    public static final String NAME = "json";
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return true;
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(RedisData entry) {
+        Object value = entry.getExpireTime() == null ? entry.getData() : entry;
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <R> RedisData decode(byte[] bytes, Class<R> type) {
+        try {
+            Object parsed = JSONUtil.parse(new String(bytes, StandardCharsets.UTF_8));
+            RedisData redisData = new RedisData();
+            Object data = parsed;
+            if (parsed instanceof JSONObject && isLogicalExpire((JSONObject) parsed)) {
+                //逻辑过期缓存，外层是RedisData，对象在data中
+                JSONObject json = (JSONObject) parsed;
+                redisData.setExpireTime(json.get("expireTime", LocalDateTime.class));
+                redisData.setDelta(json.getLong("delta"));
+                data = json.get("data");
+            }
+            redisData.setData(toData(data, type));
+            return redisData;
+        } catch (RuntimeException e) {
+            //不是合法的JSON或结构与类型不符，按接口约定返回null，调用方按未命中处理
+            return null;
+        }
+    }
+
+    /**
+     * 把JSON转换为缓存对象，数组类型（例如@HmCacheable缓存的列表）对应JSON数组
+     */
+    private Object toData(Object json, Class<?> type) {
+        if (type.isArray()) {
+            List<?> list = JSONUtil.toList((JSONArray) json, type.getComponentType());
+            Object array = Array.newInstance(type.getComponentType(), list.size());
+            for (int i = 0; i < list.size(); i++) {
+                Array.set(array, i, list.get(i));
+            }
+            return array;
+        }
+        return ((JSONObject) json).toBean(type);
+    }
+
+    /**
+     * 判断JSON是否是RedisData的结构
+     */
+    private boolean isLogicalExpire(JSONObject json) {
+        Object data = json.get("data");
+        return json.containsKey("expireTime") && (data instanceof JSONObject || data instanceof JSONArray);
+    }
+}
@@ -0,0 +1,186 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 进程内的一级缓存（L1），位于redis（L2）之前。
+ * 条目数量有上限，超出后按LRU淘汰；每个条目都有存活时间，作为失效通知丢失时的兜底。
+ * 注意：这里缓存的是反序列化之后的对象，所有节点共享同一个实例，调用方拿到后不能修改它
+ */
+@Slf4j
+@Component
+public class LocalCache implements MessageListener {
+
+    /**
+     * 缓存空值时使用的占位对象，用于区分"本地没有缓存"和"缓存了一个不存在的数据"
+     */
+    public static final Object NULL_VALUE = new Object();
+
+    private final LRUCache<String, Object> cache;
+
+    /**
+     * 渲染好的JSON，key与对象缓存相同，只为已经在对象缓存中的条目保存，
+     * 对象缓存的条目被替换或删除时同步删除，保证两者一致
+     */
+    private final LRUCache<String, byte[]> rendered;
+
+    private final CacheProperties.Local properties;
+
+    /**
+     * 运行时开启本地缓存的key前缀，例如@HmCacheable(local = true)声明的前缀
+     */
+    private final Set<String> enabledPrefixes = ConcurrentHashMap.newKeySet();
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public LocalCache(CacheProperties cacheProperties, RedisMessageListenerContainer listenerContainer) {
+        this.properties = cacheProperties.getLocal();
+        this.listenerContainer = listenerContainer;
+        this.cache = CacheUtil.newLRUCache(properties.getMaximumSize(), properties.getTtl().toMillis());
+        this.rendered = CacheUtil.newLRUCache(properties.getMaximumSize(), properties.getTtl().toMillis());
+    }
+
+    @PostConstruct
+    private void init() {
+        //订阅缓存失效频道，其他节点修改数据后，通过该频道通知本节点删除本地副本
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 判断某个key（或key前缀）是否开启了本地缓存
+     * @param key redis键或键前缀
+     * @return true：开启
+     */
+    public boolean isEnabled(String key) {
+        List<String> prefixes = properties.getPrefixes();
+        for (String prefix : prefixes) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        for (String prefix : enabledPrefixes) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 为某个key前缀开启本地缓存
+     * @param prefix key前缀
+     */
+    public void enable(String prefix) {
+        enabledPrefixes.add(prefix);
+    }
+
+    /**
+     * 查询本地缓存
+     * @param key redis键
+     * @return null：本地没有缓存；NULL_VALUE：缓存的是空值；其他：缓存的对象
+     */
+    public Object get(String key) {
+        return cache.get(key, false);
+    }
+
+    /**
+     * 写入本地缓存
+     * @param key redis键
+     * @param value 值，为null时缓存空值
+     * @param ttlMillis 期望的存活时间，不会超过配置的本地缓存存活时间
+     */
+    public void put(String key, Object value, long ttlMillis) {
+        long timeout = Math.min(ttlMillis, properties.getTtl().toMillis());
+        if (timeout <= 0) {
+            return;
+        }
+        cache.put(key, value == null ? NULL_VALUE : value, timeout);
+        rendered.remove(key);
+    }
+
+    /**
+     * 查询渲染好的JSON，只有对象缓存中的条目仍然有效时才返回，
+     * 对象条目的存活时间可能比渲染结果短（热点副本、空值），逻辑过期后也要交给调用方去触发重建
+     * @param key redis键
+     * @return null：没有
+     */
+    public byte[] getRendered(String key) {
+        Object current = cache.get(key, false);
+        if (current == null || current == NULL_VALUE) {
+            rendered.remove(key);
+            return null;
+        }
+        if (current instanceof RedisData && isLogicallyExpired((RedisData) current)) {
+            return null;
+        }
+        return rendered.get(key, false);
+    }
+
+    private static boolean isLogicallyExpired(RedisData entry) {
+        return entry.getExpireTime() != null && !entry.getExpireTime().isAfter(LocalDateTime.now());
+    }
+
+    /**
+     * 保存对象渲染后的JSON，只有对象仍然是本地缓存中的当前值时才保存
+     * @param key redis键
+     * @param source 渲染的对象，必须是从本地缓存中取出或刚写入本地缓存的实例
+     * @param json 渲染结果
+     */
+    public void putRendered(String key, Object source, byte[] json) {
+        if (!isCurrent(key, source)) {
+            return;
+        }
+        rendered.put(key, json);
+        //写入期间对象可能已被替换或删除，此时渲染结果已经过时
+        if (!isCurrent(key, source)) {
+            rendered.remove(key);
+        }
+    }
+
+    /**
+     * 对象是否是本地缓存中的当前值，逻辑过期格式比较其中的数据
+     */
+    private boolean isCurrent(String key, Object source) {
+        Object current = cache.get(key, false);
+        if (current instanceof RedisData) {
+            current = ((RedisData) current).getData();
+        }
+        return current == source;
+    }
+
+    /**
+     * 删除本节点的本地缓存
+     * @param key redis键
+     */
+    public void invalidate(String key) {
+        cache.remove(key);
+        rendered.remove(key);
+    }
+
+    /**
+     * 收到其他节点（也包括自己）发出的失效通知
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        log.debug("收到本地缓存失效通知：{}", key);
+        invalidate(key);
+    }
+}
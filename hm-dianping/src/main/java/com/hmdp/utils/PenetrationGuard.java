@@ -0,0 +1,181 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOOM_ADD_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
+/**
+ * 基于布隆过滤器的缓存穿透防护。
+ * 启动时从tb_shop、tb_blog中加载全部id，新增数据时写入本节点并通过发布订阅通知其他节点写入，并定期重建以清理已删除的id、控制误判率。
+ * CacheClient在访问redis和数据库之前先查询这里，布隆过滤器判断不存在的id直接在进程内拒绝，没有任何IO
+ */
+@Slf4j
+@Component
+public class PenetrationGuard {
+
+    /**
+     * 每次从数据库中按id游标读取的条数
+     */
+    private static final int LOAD_BATCH_SIZE = 5000;
+
+    private final CacheProperties.Bloom properties;
+    /**
+     * key前缀 -> 对应表的mapper，决定了哪些前缀受布隆过滤器保护
+     */
+    private final Map<String, BaseMapper<?>> sources = new LinkedHashMap<>();
+    /**
+     * key前缀 -> 当前生效的布隆过滤器，重建时整体替换
+     */
+    private final Map<String, BloomFilter> filters = new ConcurrentHashMap<>();
+    /**
+     * 重建期间新增的id，重建完成后补写进新的过滤器，防止新数据被误判为不存在
+     */
+    private final Map<String, Queue<Object>> pendingDuringRebuild = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public PenetrationGuard(CacheProperties cacheProperties, ShopMapper shopMapper, BlogMapper blogMapper,
+                            StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.properties = cacheProperties.getBloom();
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        sources.put(CACHE_SHOP_KEY, shopMapper);
+        sources.put(CACHE_BLOG_KEY, blogMapper);
+    }
+
+    @PostConstruct
+    private void init() {
+        //订阅新增id的通知，其他节点新增数据后本节点的过滤器也要写入，否则要等到下一次重建才能查到
+        listenerContainer.addMessageListener(this::onAdded, new ChannelTopic(CACHE_BLOOM_ADD_CHANNEL));
+        if (properties.isEnabled()) {
+            rebuildAll();
+        }
+    }
+
+    /**
+     * 定期重建所有布隆过滤器
+     */
+    @Scheduled(initialDelayString = "#{@cacheProperties.bloom.rebuildInterval.toMillis()}",
+            fixedDelayString = "#{@cacheProperties.bloom.rebuildInterval.toMillis()}")
+    public void rebuildAll() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        for (Map.Entry<String, BaseMapper<?>> entry : sources.entrySet()) {
+            try {
+                rebuild(entry.getKey(), entry.getValue());
+            } catch (Exception e) {
+                //构建失败时保留旧的过滤器（或不拦截），不能影响正常查询
+                log.error("构建布隆过滤器失败，prefix={}", entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * 判断某个id是否可能存在
+     * @param keyPrefix 缓存key前缀
+     * @param id 数据id
+     * @return false：一定不存在；true：可能存在，或该前缀没有启用布隆过滤器
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        BloomFilter filter = filters.get(keyPrefix);
+        return filter == null || id == null || filter.mightContain(id);
+    }
+
+    /**
+     * 新增数据后调用，把id写入本节点的布隆过滤器，并通知其他节点写入
+     * @param keyPrefix 缓存key前缀
+     * @param id 数据id
+     */
+    public void put(String keyPrefix, Object id) {
+        if (!properties.isEnabled() || !sources.containsKey(keyPrefix) || id == null) {
+            return;
+        }
+        putLocal(keyPrefix, id);
+        stringRedisTemplate.convertAndSend(CACHE_BLOOM_ADD_CHANNEL, keyPrefix + "|" + id);
+    }
+
+    private void onAdded(Message message, byte[] pattern) {
+        //消息格式：key前缀|id，布隆过滤器按id的字符串计算哈希，直接写入字符串即可
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|", 2);
+        if (parts.length == 2) {
+            putLocal(parts[0], parts[1]);
+        }
+    }
+
+    private void putLocal(String keyPrefix, Object id) {
+        BloomFilter filter = filters.get(keyPrefix);
+        if (filter == null || id == null) {
+            return;
+        }
+        filter.put(id);
+        Queue<Object> pending = pendingDuringRebuild.get(keyPrefix);
+        if (pending != null) {
+            pending.add(id);
+        }
+        //写入期间过滤器可能刚好被替换，补写一次新的过滤器
+        BloomFilter current = filters.get(keyPrefix);
+        if (current != filter) {
+            current.put(id);
+        }
+    }
+
+    /**
+     * 重建某个前缀的布隆过滤器：按id游标分批读取全部id，构建完成后整体替换
+     */
+    private <T> void rebuild(String keyPrefix, BaseMapper<T> mapper) {
+        long begin = System.currentTimeMillis();
+        Queue<Object> pending = new ConcurrentLinkedQueue<>();
+        pendingDuringRebuild.put(keyPrefix, pending);
+        try {
+            Integer count = mapper.selectCount(null);
+            long expected = Math.max((long) (count * properties.getHeadroom()), properties.getMinExpectedInsertions());
+            BloomFilter filter = new BloomFilter(expected, properties.getFpp());
+            long lastId = 0;
+            while (true) {
+                List<Object> ids = mapper.selectObjs(new QueryWrapper<T>()
+                        .select("id").gt("id", lastId).orderByAsc("id").last("LIMIT " + LOAD_BATCH_SIZE));
+                for (Object id : ids) {
+                    filter.put(id);
+                }
+                if (ids.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = ((Number) ids.get(ids.size() - 1)).longValue();
+            }
+            filters.put(keyPrefix, filter);
+            //补写重建期间新增的id
+            for (Object id : pending) {
+                filter.put(id);
+            }
+            log.info("布隆过滤器构建完成，prefix={}，数据量={}，容量={}，占用{}字节，耗时{}ms",
+                    keyPrefix, count, expected, filter.byteSize(), System.currentTimeMillis() - begin);
+        } finally {
+            pendingDuringRebuild.remove(keyPrefix);
+        }
+    }
+}
@@ -11,13 +11,75 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+
     public static final Long CACHE_SHOP_TYPE_TTL = 30L;
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shopType:";
 
+    public static final Long CACHE_USER_INFO_TTL = 30L;
+    public static final String CACHE_USER_INFO_KEY = "cache:userInfo:";
+
+    public static final Long CACHE_SHOP_VOUCHER_TTL = 5L;
+    public static final String CACHE_SHOP_VOUCHER_KEY = "cache:shopVoucher:";
+
+    /**
+     * 提前刷新的逻辑过期key，score为逻辑过期时间（毫秒）
+     */
+    public static final String CACHE_REFRESH_AHEAD_KEY = "cache:refreshAhead";
+
+    /**
+     * 秒杀订单消息队列及其消费者组
+     */
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    /**
+     * 多次处理失败的秒杀订单消息转入的死信队列
+     */
+    public static final String SECKILL_ORDER_DLQ_KEY = "stream.orders.dlq";
+    /**
+     * 秒杀优惠券售罄、补充库存的通知频道
+     */
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    /**
+     * 秒杀订单的异步处理状态（hash），以及状态变为最终状态时的通知频道
+     */
+    public static final String SECKILL_ORDER_STATUS_KEY = "seckill:order:status:";
+    public static final String SECKILL_ORDER_STATUS_CHANNEL = "seckill:order:status";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_REBUILT_CHANNEL = "cache:rebuilt";
+    public static final String CACHE_HOT_KEY_CHANNEL = "cache:hotkey";
+    /**
+     * 新增数据后通知各节点把id写入本地布隆过滤器，消息格式：key前缀|id
+     */
+    public static final String CACHE_BLOOM_ADD_CHANNEL = "cache:bloom:add";
+
+    public static final String LOCK_KEY_PREFIX = "lock:";
+    /**
+     * 缓存版本号key的后缀，完整的key为 {缓存key}:ver，花括号保证集群模式下与缓存key落在同一个slot
+     */
+    public static final String CACHE_VERSION_SUFFIX = ":ver";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
+    /**
+     * 秒杀库存，不分桶时为 seckill:stock:{id}；分桶时每个桶为 seckill:stock:{{id}:{桶序号}}，
+     * 花括号中的部分是集群模式下的hash tag，每个桶可以落在不同的slot上
+     */
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    /**
+     * 已经抢到秒杀券的用户集合，由seckill.lua写入
+     */
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    /**
+     * 秒杀券的开始、结束时间（hash，毫秒时间戳），seckill.lua据此检查秒杀时间
+     */
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
 
     public static final String FOLLOW_KEY = "follows:";
@@ -10,5 +10,9 @@ import java.time.LocalDateTime;
 @Data
 public class RedisData {
     private LocalDateTime expireTime;
+    /**
+     * 上一次重建缓存的耗时（毫秒），提前刷新策略根据它决定提前多久刷新，为null表示不使用提前刷新
+     */
+    private Long delta;
     private Object data;
 }
@@ -36,18 +36,37 @@ public class RedisIdWorker {
     public long nextId(String keyPrefix){
         //1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
-        long timestamp = nowSecond - BEGIN_TIMESTAMP;
 
         //2.生成序列号
         //2.1获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
         //2.2自增长
         //increment默认每次自增1，返回值count表示自增后的值
-        Long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + date);
+        Long count = stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, now));
 
         //3.拼接并返回
-        return timestamp << COUNT_BITS | count;
+        return timestampPart(now) | count;
+
+    }
 
+    /**
+     * id的时间戳部分（已经左移），序列号由调用方自增（例如在lua脚本中）时使用，id = 时间戳部分 | 序列号
+     * @param now 当前时间
+     * @return 时间戳部分
+     */
+    public long timestampPart(LocalDateTime now){
+        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
+        long timestamp = nowSecond - BEGIN_TIMESTAMP;
+        return timestamp << COUNT_BITS;
+    }
+
+    /**
+     * 序列号的自增key，每天一个
+     * @param keyPrefix id前缀
+     * @param now 当前时间
+     * @return redis键
+     */
+    public String counterKey(String keyPrefix, LocalDateTime now){
+        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        return "icr:" + keyPrefix + date;
     }
 }
@@ -0,0 +1,205 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.CACHE_REFRESH_AHEAD_KEY;
+
+/**
+ * 逻辑过期key的后台提前刷新：逻辑过期key写入时按逻辑过期时间记录到redis的zset中，
+ * 定时领取在 refresh-ahead.window 之内即将过期的key，按前缀分组，通过注册的批量查询逻辑刷新，
+ * 请求线程不再承担重建的开销，访问少的key也不会长时间停留在过期状态。
+ * 读取时发现已经逻辑过期的重建逻辑仍然保留，作为后台刷新失败时的兜底
+ */
+@Slf4j
+@Component
+public class RefreshAheadScheduler {
+
+    private static final DefaultRedisScript<List<String>> CLAIM_SCRIPT;
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("cache_refresh_claim.lua"));
+        CLAIM_SCRIPT.setResultType(listOfString());
+    }
+
+    /**
+     * 脚本返回的是key列表，StringRedisTemplate按字符串反序列化；泛型类型没有对应的Class对象，只能强制转换
+     */
+    @SuppressWarnings("unchecked")
+    private static Class<List<String>> listOfString() {
+        return (Class<List<String>>) (Class<?>) List.class;
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final CacheClient cacheClient;
+
+    private final CacheProperties.RefreshAhead properties;
+    /**
+     * key前缀 -> 刷新逻辑
+     */
+    private final Map<String, Loader<?, ?>> loaders = new ConcurrentHashMap<>();
+
+    private final AtomicLong claimedCount = new AtomicLong();
+    private final AtomicLong refreshedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong demotedCount = new AtomicLong();
+
+    public RefreshAheadScheduler(StringRedisTemplate stringRedisTemplate, CacheClient cacheClient,
+                                 CacheProperties cacheProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheClient = cacheClient;
+        this.properties = cacheProperties.getRefreshAhead();
+    }
+
+    /**
+     * 注册某个前缀的刷新逻辑，之后该前缀写入的逻辑过期key会在过期之前被后台刷新
+     * @param keyPrefix key前缀
+     * @param idParser 把key中的id字符串转换为id
+     * @param dbBatchFallback 根据一批id查询数据库的逻辑
+     * @param idGetter 从查询结果中取出id
+     * @param time 逻辑过期时间
+     * @param unit 时间单位
+     */
+    public <R, ID> void register(String keyPrefix, Function<String, ID> idParser,
+                                 Function<Collection<ID>, List<R>> dbBatchFallback, Function<R, ID> idGetter,
+                                 Long time, TimeUnit unit) {
+        loaders.put(keyPrefix, new Loader<>(keyPrefix, idParser, dbBatchFallback, idGetter, time, unit));
+        cacheClient.enableRefreshAhead(keyPrefix);
+    }
+
+    @Scheduled(fixedDelayString = "#{@cacheProperties.refreshAhead.interval.toMillis()}")
+    public void tick() {
+        if (!properties.isEnabled() || loaders.isEmpty()) {
+            return;
+        }
+        try {
+            //一次领取满说明还有积压，继续领取下一批
+            int claimed;
+            do {
+                claimed = refreshDue();
+            } while (claimed >= properties.getBatchSize());
+        } catch (Exception e) {
+            log.error("提前刷新缓存失败", e);
+        }
+    }
+
+    /**
+     * 领取一批即将过期的key并刷新
+     * @return 领取的key个数
+     */
+    @SuppressWarnings("unchecked")
+    private int refreshDue() {
+        //1.领取逻辑过期时间在窗口之内的key，同时续上租约，其他节点不会重复领取
+        long now = System.currentTimeMillis();
+        List<String> keys = stringRedisTemplate.execute(CLAIM_SCRIPT, Collections.singletonList(CACHE_REFRESH_AHEAD_KEY),
+                String.valueOf(now + properties.getWindow().toMillis()),
+                String.valueOf(properties.getBatchSize()),
+                String.valueOf(now + properties.getLease().toMillis()));
+        if (keys == null || keys.isEmpty()) {
+            return 0;
+        }
+        claimedCount.addAndGet(keys.size());
+        //2.按前缀分组，同一个前缀的key通过一次批量查询刷新
+        Map<Loader<?, ?>, List<String>> groups = new HashMap<>();
+        List<String> orphans = new ArrayList<>();
+        List<String> demoted = new ArrayList<>();
+        for (String key : keys) {
+            Loader<?, ?> loader = loaderOf(key);
+            if (loader == null) {
+                orphans.add(key);
+            } else if (!cacheClient.keepRefreshingAhead(key)) {
+                demoted.add(key);
+            } else {
+                groups.computeIfAbsent(loader, l -> new ArrayList<>()).add(key);
+            }
+        }
+        //没有注册刷新逻辑的key（例如注册已经取消）不再记录
+        if (!orphans.isEmpty()) {
+            stringRedisTemplate.opsForZSet().remove(CACHE_REFRESH_AHEAD_KEY, orphans.toArray());
+        }
+        //自适应策略下已经降温的key，删除逻辑过期缓存（它在redis中永不过期），下次访问时按当前的策略重建
+        if (!demoted.isEmpty()) {
+            cacheClient.evictBatch(demoted);
+            stringRedisTemplate.opsForZSet().remove(CACHE_REFRESH_AHEAD_KEY, demoted.toArray());
+            demotedCount.addAndGet(demoted.size());
+        }
+        //3.逐组刷新，一组失败不影响其他组，失败的key在租约到期后重新领取
+        for (Map.Entry<Loader<?, ?>, List<String>> group : groups.entrySet()) {
+            try {
+                refreshedCount.addAndGet(group.getKey().refresh(group.getValue()));
+            } catch (Exception e) {
+                failedCount.addAndGet(group.getValue().size());
+                log.warn("提前刷新{}个缓存失败，前缀：{}", group.getValue().size(), group.getKey().keyPrefix, e);
+            }
+        }
+        return keys.size();
+    }
+
+    private Loader<?, ?> loaderOf(String key) {
+        Loader<?, ?> matched = null;
+        for (Loader<?, ?> loader : loaders.values()) {
+            if (key.startsWith(loader.keyPrefix)
+                    && (matched == null || loader.keyPrefix.length() > matched.keyPrefix.length())) {
+                matched = loader;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * 提前刷新的统计信息
+     * @return 领取、刷新成功、刷新失败的key个数，以及当前等待刷新的key个数
+     */
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("claimed", claimedCount.get());
+        stats.put("refreshed", refreshedCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("demoted", demotedCount.get());
+        Long tracked = stringRedisTemplate.opsForZSet().zCard(CACHE_REFRESH_AHEAD_KEY);
+        stats.put("tracked", tracked == null ? 0L : tracked);
+        return stats;
+    }
+
+    /**
+     * 某个前缀的刷新逻辑
+     */
+    private class Loader<R, ID> {
+        private final String keyPrefix;
+        private final Function<String, ID> idParser;
+        private final Function<Collection<ID>, List<R>> dbBatchFallback;
+        private final Function<R, ID> idGetter;
+        private final Long time;
+        private final TimeUnit unit;
+
+        Loader(String keyPrefix, Function<String, ID> idParser, Function<Collection<ID>, List<R>> dbBatchFallback,
+               Function<R, ID> idGetter, Long time, TimeUnit unit) {
+            this.keyPrefix = keyPrefix;
+            this.idParser = idParser;
+            this.dbBatchFallback = dbBatchFallback;
+            this.idGetter = idGetter;
+            this.time = time;
+            this.unit = unit;
+        }
+
+        int refresh(List<String> keys) {
+            List<ID> ids = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                ids.add(idParser.apply(key.substring(keyPrefix.length())));
+            }
+            return cacheClient.refreshBatch(keyPrefix, ids, dbBatchFallback, idGetter, time, unit);
+        }
+    }
+}
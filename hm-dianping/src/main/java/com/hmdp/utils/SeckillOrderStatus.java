@@ -0,0 +1,144 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+
+/**
+ * 秒杀订单的异步处理状态，保存在redis的hash seckill:order:status:{orderId}中（status、userId）：
+ * seckill.lua下单时写入queued，消费者写入数据库后更新为created，无法创建时更新为failed。
+ * 状态变为最终状态时通过发布订阅通知所有节点，唤醒等待该订单的长轮询请求
+ */
+@Slf4j
+@Component
+public class SeckillOrderStatus {
+
+    public static final String QUEUED = "queued";
+    public static final String CREATED = "created";
+    public static final String FAILED = "failed";
+
+    private static final String FIELD_STATUS = "status";
+    private static final String FIELD_USER_ID = "userId";
+
+    /**
+     * 订单id -> 本节点上等待该订单结果的长轮询请求
+     */
+    private final Map<Long, Queue<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillProperties seckillProperties;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public SeckillOrderStatus(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties,
+                              RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillProperties = seckillProperties;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this::onMessage, new ChannelTopic(SECKILL_ORDER_STATUS_CHANNEL));
+    }
+
+    /**
+     * 查询订单状态，只读redis
+     * @param orderId 订单id
+     * @param userId 当前用户，只能查询自己的订单
+     * @return 订单状态，订单不存在、不属于该用户或状态已经过期时返回null
+     */
+    public String get(Long orderId, Long userId) {
+        List<Object> values = stringRedisTemplate.opsForHash()
+                .multiGet(SECKILL_ORDER_STATUS_KEY + orderId, Arrays.asList(FIELD_STATUS, FIELD_USER_ID));
+        if (values.get(0) == null || !userId.toString().equals(values.get(1))) {
+            return null;
+        }
+        return values.get(0).toString();
+    }
+
+    /**
+     * 批量更新为最终状态（created、failed），并通知等待的请求
+     * @param statuses 订单id -> 状态
+     */
+    public void complete(Map<Long, String> statuses) {
+        if (statuses.isEmpty()) {
+            return;
+        }
+        long ttl = seckillProperties.getStatus().getTtl().getSeconds();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            statuses.forEach((orderId, status) -> {
+                String key = SECKILL_ORDER_STATUS_KEY + orderId;
+                conn.hSet(key, FIELD_STATUS, status);
+                conn.expire(key, ttl);
+                conn.publish(SECKILL_ORDER_STATUS_CHANNEL, orderId + "|" + status);
+            });
+            return null;
+        });
+    }
+
+    /**
+     * 长轮询：订单已经是最终状态时立即返回，否则等到消费者处理完或超时（超时返回queued）
+     * @param orderId 订单id
+     * @param userId 当前用户
+     * @return 异步结果
+     */
+    public DeferredResult<Result> await(Long orderId, Long userId) {
+        DeferredResult<Result> result = new DeferredResult<>(
+                seckillProperties.getStatus().getWaitTimeout().toMillis(), Result.ok(QUEUED));
+        //1.先登记再读状态，避免读完状态、登记之前错过通知
+        Queue<DeferredResult<Result>> queue = waiters.computeIfAbsent(orderId, id -> new ConcurrentLinkedQueue<>());
+        queue.add(result);
+        result.onCompletion(() -> {
+            queue.remove(result);
+            if (queue.isEmpty()) {
+                waiters.remove(orderId, queue);
+            }
+        });
+        //2.读取当前状态
+        String status = get(orderId, userId);
+        if (status == null) {
+            result.setResult(Result.fail("订单不存在！"));
+        } else if (!QUEUED.equals(status)) {
+            result.setResult(Result.ok(status));
+        }
+        return result;
+    }
+
+    private void onMessage(Message message, byte[] pattern) {
+        //消息格式：订单id|状态
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|", 2);
+        if (parts.length != 2) {
+            return;
+        }
+        Queue<DeferredResult<Result>> queue = waiters.remove(Long.valueOf(parts[0]));
+        if (queue == null) {
+            return;
+        }
+        for (DeferredResult<Result> result : queue) {
+            result.setResult(Result.ok(parts[1]));
+        }
+    }
+}
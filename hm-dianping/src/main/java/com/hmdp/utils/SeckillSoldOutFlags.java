@@ -0,0 +1,108 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 秒杀优惠券的本地售罄标记：seckill.lua返回库存不足时标记，并通过redis的发布订阅通知所有节点，
+ * 之后该优惠券的秒杀请求在本地直接拒绝，不再生成订单id、也不再执行脚本。
+ * 补充库存时发送重置通知；标记本身也有存活时间，通知丢失时最多这么长时间之后会重新执行一次脚本确认
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutFlags {
+
+    private static final String SOLD_OUT = "out";
+    private static final String RESET = "reset";
+
+    /**
+     * 优惠券id -> 标记的到期时间
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillProperties seckillProperties;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public SeckillSoldOutFlags(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties,
+                               RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillProperties = seckillProperties;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this::onMessage, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 判断优惠券是否已经售罄，只读本地内存
+     * @param voucherId 优惠券id
+     * @return true：已售罄，可以直接拒绝
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long until = soldOut.get(voucherId);
+        if (until == null) {
+            return false;
+        }
+        if (until < System.currentTimeMillis()) {
+            soldOut.remove(voucherId, until);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记售罄，并通知所有节点
+     * @param voucherId 优惠券id
+     */
+    public void markSoldOut(Long voucherId) {
+        if (isSoldOut(voucherId)) {
+            return;
+        }
+        mark(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + "|" + voucherId);
+    }
+
+    /**
+     * 补充库存后取消售罄标记，并通知所有节点
+     * @param voucherId 优惠券id
+     */
+    public void reset(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, RESET + "|" + voucherId);
+    }
+
+    private void mark(Long voucherId) {
+        soldOut.put(voucherId, System.currentTimeMillis() + seckillProperties.getSoldOutTtl().toMillis());
+    }
+
+    private void onMessage(Message message, byte[] pattern) {
+        //消息格式：类型|优惠券id
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|", 2);
+        if (parts.length != 2) {
+            return;
+        }
+        Long voucherId = Long.valueOf(parts[1]);
+        if (SOLD_OUT.equals(parts[0])) {
+            mark(voucherId);
+        } else if (RESET.equals(parts[0])) {
+            soldOut.remove(voucherId);
+        }
+    }
+}
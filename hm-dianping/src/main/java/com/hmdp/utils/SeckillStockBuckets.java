@@ -0,0 +1,182 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀库存的存放位置：不分桶时只有 seckill:stock:{id}；分桶时库存拆分到 seckill:stock:{{id}:{桶序号}}，
+ * 每个桶有自己的hash tag，集群模式下落在不同的分片上。扣减时从路由值对应的桶开始，桶空了依次找下一个桶，
+ * 所有桶都空了才算售罄。每次只通过KEYS访问一个桶，桶之间没有跨slot的操作。
+ * 库存在各个桶之间可以互相替代，归还时放回路由值对应的桶，总数保持不变
+ */
+@Component
+public class SeckillStockBuckets {
+
+    private static final DefaultRedisScript<Long> TAKE_SCRIPT;
+
+    static {
+        TAKE_SCRIPT = new DefaultRedisScript<>();
+        TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_lease.lua"));
+        TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillProperties seckillProperties;
+
+    private final SeckillVoucherWindows voucherWindows;
+
+    public SeckillStockBuckets(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties,
+                               SeckillVoucherWindows voucherWindows) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillProperties = seckillProperties;
+        this.voucherWindows = voucherWindows;
+    }
+
+    /**
+     * 新建秒杀券时的分桶数，库存少于 hmdp.seckill.buckets.min-stock 时不分桶，每个桶至少有一个库存
+     * @param stock 库存
+     * @return 1：不分桶
+     */
+    public int bucketsFor(int stock) {
+        SeckillProperties.Buckets buckets = seckillProperties.getBuckets();
+        if (buckets.getCount() <= 1 || stock < buckets.getMinStock()) {
+            return 1;
+        }
+        return Math.max(1, Math.min(buckets.getCount(), stock));
+    }
+
+    /**
+     * 把库存写入redis，分桶时平均分配，余数分给前面的桶。
+     * 各个桶在不同的slot上，不能用一次MSET写入，逐个写入
+     * @param voucherId 优惠券id
+     * @param stock 库存
+     * @param buckets 分桶数
+     */
+    public void init(Long voucherId, int stock, int buckets) {
+        if (buckets <= 1) {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+            return;
+        }
+        int each = stock / buckets;
+        int remainder = stock % buckets;
+        for (int i = 0; i < buckets; i++) {
+            stringRedisTemplate.opsForValue().set(bucketKey(voucherId, i), String.valueOf(i < remainder ? each + 1 : each));
+        }
+    }
+
+    /**
+     * 是否分桶
+     * @param voucherId 优惠券id
+     */
+    public boolean isBucketed(Long voucherId) {
+        return voucherWindows.bucketsOf(voucherId) > 1;
+    }
+
+    /**
+     * 优惠券的所有库存key，不分桶时只有一个
+     * @param voucherId 优惠券id
+     * @return 库存key，分桶时按桶序号排列
+     */
+    public List<String> stockKeys(Long voucherId) {
+        int buckets = voucherWindows.bucketsOf(voucherId);
+        if (buckets <= 1) {
+            return Collections.singletonList(SECKILL_STOCK_KEY + voucherId);
+        }
+        List<String> keys = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            keys.add(bucketKey(voucherId, i));
+        }
+        return keys;
+    }
+
+    /**
+     * 批量查询多个优惠券的剩余库存，分桶的优惠券为各个桶的库存之和
+     * @param voucherIds 优惠券id
+     * @return 优惠券id -> 库存，redis中没有库存的不包含在内
+     */
+    public Map<Long, Integer> stocks(List<Long> voucherIds) {
+        //1.一次MGET读取所有库存key
+        List<String> keys = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>(voucherIds.size());
+        for (Long voucherId : voucherIds) {
+            List<String> stockKeys = stockKeys(voucherId);
+            keys.addAll(stockKeys);
+            counts.add(stockKeys.size());
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        Map<Long, Integer> stocks = new LinkedHashMap<>();
+        if (values == null) {
+            return stocks;
+        }
+        //2.按优惠券汇总
+        int index = 0;
+        for (int i = 0; i < voucherIds.size(); i++) {
+            Integer stock = null;
+            for (int j = 0; j < counts.get(i); j++) {
+                String value = values.get(index++);
+                if (value != null) {
+                    stock = (stock == null ? 0 : stock) + Math.max(0, Integer.parseInt(value));
+                }
+            }
+            if (stock != null) {
+                stocks.put(voucherIds.get(i), stock);
+            }
+        }
+        return stocks;
+    }
+
+    /**
+     * 扣减库存，从路由值对应的桶开始，桶空了依次找下一个桶
+     * @param voucherId 优惠券id
+     * @param routing 路由值，按用户扣减时为用户id，保证同一用户总是先访问同一个桶
+     * @param count 希望扣减的数量
+     * @return 实际扣减的数量，可能少于count（只在一个桶中扣减），0表示所有桶都已经为空
+     */
+    public int take(Long voucherId, long routing, int count) {
+        List<String> keys = stockKeys(voucherId);
+        int start = home(routing, keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get((start + i) % keys.size());
+            Long taken = stringRedisTemplate.execute(TAKE_SCRIPT, Collections.singletonList(key), String.valueOf(count));
+            if (taken != null && taken > 0) {
+                return taken.intValue();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 归还库存，放回路由值对应的桶
+     * @param voucherId 优惠券id
+     * @param routing 路由值
+     * @param count 归还的数量
+     */
+    public void giveBack(Long voucherId, long routing, int count) {
+        if (count <= 0) {
+            return;
+        }
+        List<String> keys = stockKeys(voucherId);
+        String key = keys.get(home(routing, keys.size()));
+        stringRedisTemplate.execute(TAKE_SCRIPT, Collections.singletonList(key), String.valueOf(-count));
+    }
+
+    private static String bucketKey(Long voucherId, int bucket) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + bucket + "}";
+    }
+
+    private static int home(long routing, int buckets) {
+        return (int) Math.floorMod(routing, (long) buckets);
+    }
+}
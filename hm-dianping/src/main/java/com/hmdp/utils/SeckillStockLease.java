@@ -0,0 +1,174 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 秒杀库存租借：节点每次从redis中租借一批库存（hmdp.seckill.lease.chunk）放在本地计数器中，
+ * 本地还有库存时下单不再扣减redis中的库存，一人一单仍然由seckill.lua在redis中判断。
+ * 秒杀结束或节点关闭时把没有用完的库存还回redis。分桶的秒杀券每次从随机的桶开始租借，各节点的租借分散到不同的桶上
+ */
+@Slf4j
+@Component
+public class SeckillStockLease {
+
+    /**
+     * 优惠券id -> 本地剩余的租借库存
+     */
+    private final Map<Long, AtomicInteger> leases = new ConcurrentHashMap<>();
+
+    private final SeckillStockBuckets stockBuckets;
+
+    private final SeckillProperties seckillProperties;
+
+    private final ISeckillVoucherService seckillVoucherService;
+
+    public SeckillStockLease(SeckillStockBuckets stockBuckets, SeckillProperties seckillProperties,
+                             ISeckillVoucherService seckillVoucherService) {
+        this.stockBuckets = stockBuckets;
+        this.seckillProperties = seckillProperties;
+        this.seckillVoucherService = seckillVoucherService;
+    }
+
+    /**
+     * 是否开启了库存租借
+     */
+    public boolean isEnabled() {
+        return seckillProperties.getLease().isEnabled();
+    }
+
+    /**
+     * 只从本地租借的库存中扣减一个，不访问redis
+     * @param voucherId 优惠券id
+     * @return true：扣减成功
+     */
+    public boolean tryAcquireLocal(Long voucherId) {
+        AtomicInteger units = leases.get(voucherId);
+        return units != null && decrementIfPositive(units);
+    }
+
+    /**
+     * 扣减一个库存，本地没有时从redis中租借一批，同一个优惠券同时只有一个线程去租借
+     * @param voucherId 优惠券id
+     * @return false：redis中的库存也已经为空
+     */
+    public boolean tryAcquire(Long voucherId) {
+        AtomicInteger units = leases.computeIfAbsent(voucherId, id -> new AtomicInteger());
+        while (true) {
+            if (decrementIfPositive(units)) {
+                return true;
+            }
+            synchronized (units) {
+                //等待锁的过程中其他线程可能已经租到了
+                if (units.get() > 0) {
+                    continue;
+                }
+                int leased = stockBuckets.take(voucherId, ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE),
+                        seckillProperties.getLease().getChunk());
+                if (leased <= 0) {
+                    return false;
+                }
+                units.addAndGet(leased);
+            }
+        }
+    }
+
+    /**
+     * 扣减了库存但没有下单成功（例如重复下单），把库存放回本地
+     * @param voucherId 优惠券id
+     */
+    public void release(Long voucherId) {
+        leases.computeIfAbsent(voucherId, id -> new AtomicInteger()).incrementAndGet();
+    }
+
+    /**
+     * 把本地剩余的库存还回redis
+     * @param voucherId 优惠券id
+     */
+    public void giveBack(Long voucherId) {
+        AtomicInteger units = leases.get(voucherId);
+        if (units == null) {
+            return;
+        }
+        int remaining = units.getAndSet(0);
+        if (remaining <= 0) {
+            return;
+        }
+        try {
+            stockBuckets.giveBack(voucherId, ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE), remaining);
+        } catch (RuntimeException e) {
+            //归还失败放回本地，下次再还
+            units.addAndGet(remaining);
+            throw e;
+        }
+    }
+
+    /**
+     * 本地剩余的租借库存，优惠券id -> 数量
+     */
+    public Map<Long, Integer> remaining() {
+        Map<Long, Integer> remaining = new TreeMap<>();
+        leases.forEach((id, units) -> remaining.put(id, units.get()));
+        return remaining;
+    }
+
+    /**
+     * 定时归还已经结束的秒杀券的剩余库存，结束的秒杀券不会再有下单请求，库存留在本地只会少卖
+     */
+    @Scheduled(fixedDelayString = "#{@seckillProperties.lease.checkInterval.toMillis()}")
+    public void giveBackEnded() {
+        List<Long> ids = new ArrayList<>();
+        leases.forEach((id, units) -> {
+            if (units.get() > 0) {
+                ids.add(id);
+            }
+        });
+        if (ids.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        for (SeckillVoucher voucher : seckillVoucherService.listByIds(ids)) {
+            if (voucher.getEndTime().isBefore(now)) {
+                try {
+                    giveBack(voucher.getVoucherId());
+                } catch (RuntimeException e) {
+                    log.error("归还秒杀券{}的租借库存失败", voucher.getVoucherId(), e);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    private void giveBackAll() {
+        for (Long voucherId : leases.keySet()) {
+            try {
+                giveBack(voucherId);
+            } catch (RuntimeException e) {
+                log.error("节点关闭时归还秒杀券{}的租借库存失败", voucherId, e);
+            }
+        }
+    }
+
+    private static boolean decrementIfPositive(AtomicInteger units) {
+        while (true) {
+            int current = units.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (units.compareAndSet(current, current - 1)) {
+                return true;
+            }
+        }
+    }
+}
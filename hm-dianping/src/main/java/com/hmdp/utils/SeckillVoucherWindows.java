@@ -0,0 +1,133 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_KEY;
+
+/**
+ * 秒杀券的开始、结束时间。addSeckillVoucher把时间写入redis的hash seckill:voucher:{id}，
+ * seckill.lua用redis服务器时间在下单时检查；这里在本地保存一份，秒杀未开始或已结束的请求不必访问redis。
+ * 本地副本只从redis中加载，不查询数据库，超过 hmdp.seckill.window-cache-ttl 后重新加载。
+ * 同一个hash中还保存了库存的分桶数，下单时随时间一起从本地副本中读取
+ */
+@Component
+public class SeckillVoucherWindows {
+
+    public static final String FIELD_BEGIN = "begin";
+    public static final String FIELD_END = "end";
+    public static final String FIELD_BUCKETS = "buckets";
+
+    /**
+     * redis中没有时间信息的秒杀券（例如脚本上线前创建的），不在本地检查
+     */
+    private static final Window UNKNOWN = new Window(Long.MIN_VALUE, Long.MAX_VALUE, 1, 0);
+
+    private final Map<Long, Window> windows = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillProperties seckillProperties;
+
+    public SeckillVoucherWindows(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillProperties = seckillProperties;
+    }
+
+    /**
+     * 生成写入 seckill:voucher:{id} 的字段，时间为毫秒时间戳
+     */
+    public static Map<String, String> toHash(LocalDateTime beginTime, LocalDateTime endTime) {
+        Map<String, String> hash = new HashMap<>(4);
+        hash.put(FIELD_BEGIN, String.valueOf(toMillis(beginTime)));
+        hash.put(FIELD_END, String.valueOf(toMillis(endTime)));
+        return hash;
+    }
+
+    /**
+     * 写入redis并更新本地副本
+     * @param voucherId 优惠券id
+     * @param beginTime 开始时间
+     * @param endTime 结束时间
+     * @param buckets 库存的分桶数，1表示不分桶
+     */
+    public void publish(Long voucherId, LocalDateTime beginTime, LocalDateTime endTime, int buckets) {
+        Map<String, String> hash = toHash(beginTime, endTime);
+        hash.put(FIELD_BUCKETS, String.valueOf(buckets));
+        stringRedisTemplate.opsForHash().putAll(SECKILL_VOUCHER_KEY + voucherId, hash);
+        windows.put(voucherId, new Window(toMillis(beginTime), toMillis(endTime), buckets, System.currentTimeMillis()));
+    }
+
+    /**
+     * 按本地副本检查秒杀时间
+     * @param voucherId 优惠券id
+     * @return 不在秒杀时间内时返回提示信息，否则返回null
+     */
+    public String check(Long voucherId) {
+        Window window = windowOf(voucherId);
+        long now = System.currentTimeMillis();
+        if (now < window.begin) {
+            return "秒杀尚未开始！";
+        }
+        if (now > window.end) {
+            return "秒杀已经结束！";
+        }
+        return null;
+    }
+
+    /**
+     * 库存的分桶数
+     * @param voucherId 优惠券id
+     * @return 1：不分桶，库存在 seckill:stock:{id} 中
+     */
+    public int bucketsOf(Long voucherId) {
+        return windowOf(voucherId).buckets;
+    }
+
+    private Window windowOf(Long voucherId) {
+        Window window = windows.get(voucherId);
+        long now = System.currentTimeMillis();
+        if (window != null && now - window.loadedAt < seckillProperties.getWindowCacheTtl().toMillis()) {
+            return window;
+        }
+        List<Object> values = stringRedisTemplate.opsForHash()
+                .multiGet(SECKILL_VOUCHER_KEY + voucherId, Arrays.asList(FIELD_BEGIN, FIELD_END, FIELD_BUCKETS));
+        //没有分桶数的秒杀券（分桶上线前创建的）只有一个库存key
+        int buckets = values.get(2) == null ? 1 : Integer.parseInt(values.get(2).toString());
+        if (values.get(0) == null || values.get(1) == null) {
+            window = new Window(UNKNOWN.begin, UNKNOWN.end, buckets, now);
+        } else {
+            window = new Window(Long.parseLong(values.get(0).toString()), Long.parseLong(values.get(1).toString()),
+                    buckets, now);
+        }
+        windows.put(voucherId, window);
+        return window;
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static class Window {
+        private final long begin;
+        private final long end;
+        private final int buckets;
+        private final long loadedAt;
+
+        private Window(long begin, long end, int buckets, long loadedAt) {
+            this.begin = begin;
+            this.end = end;
+            this.buckets = buckets;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
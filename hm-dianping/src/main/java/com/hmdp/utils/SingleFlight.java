@@ -0,0 +1,67 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * 进程内的请求合并：同一个key同一时刻只有一个线程真正执行加载逻辑，
+ * 其他并发到达的线程不再各自去查redis、竞争锁，而是等待这个线程的结果
+ */
+public class SingleFlight {
+
+    /**
+     * 正在执行中的加载任务，加载完成后移除
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * 执行加载逻辑，同一个key的并发调用共享同一个结果
+     * @param key 合并的维度，一般是redis键
+     * @param loader 真正的加载逻辑，只会被其中一个线程执行
+     * @param timeoutMillis 其他线程最多等待的时间
+     * @param timeoutFallback 等待超时后的降级结果
+     * @return 加载结果
+     * @param <R> 返回值类型
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R execute(String key, Supplier<R> loader, long timeoutMillis, Supplier<R> timeoutFallback) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = calls.putIfAbsent(key, future);
+        if (inFlight != null) {
+            //已经有线程在加载，等待它的结果
+            try {
+                return (R) inFlight.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                return timeoutFallback.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return timeoutFallback.get();
+            } catch (ExecutionException e) {
+                //加载线程抛出的异常原样抛给等待的线程
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+        //当前线程负责加载
+        try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    /**
+     * @return 当前正在执行的加载任务数量
+     */
+    public int inFlightCount() {
+        return calls.size();
+    }
+}
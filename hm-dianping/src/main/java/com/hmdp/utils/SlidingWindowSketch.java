@@ -0,0 +1,108 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 滑动窗口的Count-Min Sketch，用固定大小的内存统计任意多个key在最近一段时间内的访问次数。
+ * 窗口被切分成若干个桶，每个桶是一个独立的sketch，访问只累加到当前桶，查询时把所有桶的估计值相加；
+ * 定时调用advance()滑动窗口，清空最旧的桶并把它作为新的当前桶。
+ * 估计值只会偏大不会偏小，误差由宽度决定，热点key的计数远大于误差，足够用于热点探测
+ */
+public class SlidingWindowSketch {
+
+    /**
+     * 每个桶的计数器，depth行 * width列
+     */
+    private final AtomicIntegerArray[] buckets;
+    /**
+     * 哈希函数个数（行数）
+     */
+    private final int depth;
+    /**
+     * 每行的计数器个数，取2的幂，用位运算取模
+     */
+    private final int width;
+    /**
+     * 当前桶的下标
+     */
+    private volatile int current;
+
+    /**
+     * @param bucketCount 窗口切分的桶数
+     * @param depth 哈希函数个数
+     * @param width 每行的计数器个数，会向上取整到2的幂
+     */
+    public SlidingWindowSketch(int bucketCount, int depth, int width) {
+        this.depth = depth;
+        int w = 1;
+        while (w < width) {
+            w <<= 1;
+        }
+        this.width = w;
+        this.buckets = new AtomicIntegerArray[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new AtomicIntegerArray(depth * this.width);
+        }
+    }
+
+    /**
+     * 记录一次访问
+     * @param key 访问的key
+     * @return 该key在整个窗口内的估计访问次数（包含本次）
+     */
+    public long increment(String key) {
+        long hash = MurmurHash.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        AtomicIntegerArray bucket = buckets[current];
+        for (int i = 0; i < depth; i++) {
+            bucket.incrementAndGet(index(i, h1, h2));
+        }
+        return estimate(h1, h2);
+    }
+
+    /**
+     * 查询key在整个窗口内的估计访问次数
+     * @param key 访问的key
+     * @return 估计访问次数
+     */
+    public long estimate(String key) {
+        long hash = MurmurHash.hash64(key);
+        return estimate((int) hash, (int) (hash >>> 32));
+    }
+
+    /**
+     * 滑动窗口：清空最旧的桶，并把它作为新的当前桶
+     */
+    public void advance() {
+        int next = (current + 1) % buckets.length;
+        AtomicIntegerArray bucket = buckets[next];
+        for (int i = 0; i < bucket.length(); i++) {
+            bucket.set(i, 0);
+        }
+        current = next;
+    }
+
+    private long estimate(int h1, int h2) {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            int index = index(i, h1, h2);
+            long sum = 0;
+            for (AtomicIntegerArray bucket : buckets) {
+                sum += bucket.get(index);
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    /**
+     * 第i行的下标，使用双重哈希 h1 + i * h2 模拟多个哈希函数
+     */
+    private int index(int row, int h1, int h2) {
+        int combined = h1 + row * h2;
+        return row * width + (combined & (width - 1));
+    }
+}
@@ -0,0 +1,4 @@
+-- 数据修改后递增版本号并删除缓存，修改之前开始的缓存重建写入时版本号不一致，不会写入旧数据
+-- KEYS[1]：缓存key，KEYS[2]：版本号key
+redis.call('incr', KEYS[2])
+return redis.call('del', KEYS[1])
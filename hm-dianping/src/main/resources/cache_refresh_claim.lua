@@ -0,0 +1,9 @@
+-- 领取即将逻辑过期的key：取出分数（逻辑过期时间）不晚于截止时间的key，并把它们的分数改为租约到期时间，
+-- 其他节点在租约到期之前不会再领取；刷新成功后分数会被更新为新的逻辑过期时间，刷新失败则租约到期后重新领取
+-- KEYS[1]：待刷新key的zset
+-- ARGV[1]：截止时间（毫秒），ARGV[2]：最多领取的个数，ARGV[3]：租约到期时间（毫秒）
+local keys = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])
+for i, key in ipairs(keys) do
+    redis.call('zadd', KEYS[1], ARGV[3], key)
+end
+return keys
@@ -0,0 +1,14 @@
+-- 带版本号的缓存写入：只有版本号与查询数据库之前读到的一致时才写入，
+-- 否则说明查询数据库之后数据又被修改过，查到的数据可能是旧的，放弃写入
+-- KEYS[1]：缓存key，KEYS[2]：版本号key
+-- ARGV[1]：缓存值，ARGV[2]：查询数据库之前读到的版本号，ARGV[3]：过期时间（毫秒），小于等于0表示永不过期
+local version = redis.call('get', KEYS[2]) or '0'
+if (version ~= ARGV[2]) then
+    return 0
+end
+if (tonumber(ARGV[3]) > 0) then
+    redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[3])
+else
+    redis.call('set', KEYS[1], ARGV[1])
+end
+return 1
@@ -0,0 +1,11 @@
+-- 缓存失效、redis同步事件的本地消息表，与业务数据在同一个事务中写入，由CacheOutboxRelay异步投递到redis
+CREATE TABLE IF NOT EXISTS `tb_cache_outbox` (
+  `id` bigint(20) unsigned NOT NULL AUTO_INCREMENT COMMENT '主键，投递顺序与写入顺序一致',
+  `type` varchar(16) NOT NULL COMMENT '事件类型：evict、sadd、srem、zadd、zrem',
+  `cache_key` varchar(255) NOT NULL COMMENT 'redis键',
+  `member` varchar(255) DEFAULT NULL COMMENT '集合成员，evict时为空',
+  `score` double DEFAULT NULL COMMENT 'zadd的分数',
+  `retries` int(8) NOT NULL DEFAULT '0' COMMENT '投递失败的次数，只用于监控，消息会一直重试直到成功',
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  PRIMARY KEY (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 ROW_FORMAT=COMPACT;
@@ -0,0 +1,3 @@
+-- 一人一单由数据库唯一索引兜底，消费者使用 INSERT ... ON DUPLICATE KEY UPDATE id = id 写入订单，不再加分布式锁、不再先查询订单
+-- 执行前需要先清理已经存在的重复订单，否则索引创建失败
+ALTER TABLE `tb_voucher_order` ADD UNIQUE KEY `uk_user_voucher` (`user_id`, `voucher_id`);
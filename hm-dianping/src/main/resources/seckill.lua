@@ -1,37 +1,91 @@
 -- 该脚本用于在秒杀业务中判断用户是否有某优惠券的购买资格，所以需要的三个参数分别为优惠券id、用户id
--- 订单ID用于作为将待处理订单放入消息队列中的编号
--- 这个脚本不太完善，我们还需要得到两个参数，优惠券的开始时间的时间戳和截止时间的时间戳
--- 以及我们还需要使用lua中的毫秒级时间戳函数，来判断优惠券是否过期
+-- 订单ID在判断有购买资格之后才在脚本中生成，用于作为将待处理订单放入消息队列中的编号
+-- 返回值：大于0为订单id的序列号部分，-1为库存不足，-2为重复下单，-3为秒杀尚未开始，-4为秒杀已经结束
+-- 优惠券的开始、结束时间在 seckill:voucher:{id} 中，用redis服务器的时间判断是否在秒杀时间内
 
 -- 1.参数列表
 -- 1.1.优惠券id
 local voucherId = ARGV[1]
 -- 1.2.用户id
 local userId = ARGV[2]
--- 1.3.订单id
-local orderId = ARGV[3]
+-- 1.3.订单id的时间戳部分（已经左移32位的十进制字符串）
+local orderIdPrefix = ARGV[3]
+-- 1.4.订单消息队列的分区数
+local partitions = tonumber(ARGV[4])
+-- 1.5.订单id序列号的自增key
+local counterKey = ARGV[5]
+-- 1.6.是否已经在脚本外扣减过库存（节点本地租借的库存，或者按用户选桶扣减的分桶库存），为'1'时不再判断和扣减redis中的库存
+-- 一人一单仍然由下面的 seckill:order:{id} 判断，所有桶共用这一个集合，用户从哪个桶扣减库存都不会重复下单
+local leased = ARGV[6] == '1'
+-- 1.7.订单状态的保存时间（秒）
+local statusTtl = ARGV[7]
+
+-- lua的数字是双精度浮点数，无法精确表示64位的订单id，按十进制分高低两段做加法
+local function addToDecimal(prefix, n)
+    local len = string.len(prefix)
+    if (len <= 9) then
+        return string.format('%.0f', tonumber(prefix) + n)
+    end
+    local high = tonumber(string.sub(prefix, 1, len - 9))
+    local low = tonumber(string.sub(prefix, len - 8)) + n
+    high = high + math.floor(low / 1000000000)
+    low = low % 1000000000
+    return string.format('%.0f%09.0f', high, low)
+end
 
 -- 2.数据key
 -- 2.1.库存key
 local stockKey = 'seckill:stock:' .. voucherId
 -- 2.2.订单key
 local orderKey = 'seckill:order:' .. voucherId
+-- 2.3.消息队列key，按优惠券id取模分区，同一个优惠券的订单在同一个分区中
+local streamKey = 'stream.orders'
+if (partitions > 1) then
+    streamKey = streamKey .. ':' .. (tonumber(voucherId) % partitions)
+end
+
+-- 2.4.秒杀时间key
+local voucherKey = 'seckill:voucher:' .. voucherId
 
 -- 3.脚本业务
--- 3.1.判断库存是否充足 get stockKey
-if(tonumber(redis.call('get', stockKey)) <= 0) then
-    -- 3.2.库存不足，返回1
-    return 1
+-- 3.0.判断秒杀时间，没有时间信息的优惠券不判断
+local window = redis.call('hmget', voucherKey, 'begin', 'end')
+if (window[1] and window[2]) then
+    -- TIME之后还有写命令，按命令复制而不是按脚本复制
+    redis.replicate_commands()
+    local time = redis.call('time')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(window[1])) then
+        return -3
+    end
+    if (now > tonumber(window[2])) then
+        return -4
+    end
+end
+-- 3.1.判断库存是否充足 get stockKey，已经扣减过节点租借的库存时不再判断
+if (not leased and tonumber(redis.call('get', stockKey) or '0') <= 0) then
+    -- 3.2.库存不足，返回-1
+    return -1
 end
 -- 3.2.判断用户是否下单 SISMEMBER orderKey userId
 if(redis.call('sismember', orderKey, userId) == 1) then
-    -- 3.3.存在，说明是重复下单，返回2
-    return 2
+    -- 3.3.存在，说明是重复下单，返回-2
+    return -2
 end
 -- 3.4.扣库存 incrby stockKey -1
-redis.call('incrby', stockKey, -1)
+if (not leased) then
+    redis.call('incrby', stockKey, -1)
+end
 -- 3.5.下单（保存用户）sadd orderKey userId （添加到set集合中）
 redis.call('sadd', orderKey, userId)
--- 3.6.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ...
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
-return 0
\ No newline at end of file
+-- 3.6.生成订单id incr counterKey
+local seq = redis.call('incr', counterKey)
+local orderId = addToDecimal(orderIdPrefix, seq)
+-- 3.7.发送消息到队列中， XADD stream.orders:n * k1 v1 k2 v2 ...
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+-- 3.8.记录订单状态为排队中，由消费者更新为created或failed
+local statusKey = 'seckill:order:status:' .. orderId
+redis.call('hset', statusKey, 'status', 'queued', 'userId', userId)
+redis.call('expire', statusKey, statusTtl)
+-- 3.9.返回序列号，由调用方拼出订单id
+return seq
\ No newline at end of file
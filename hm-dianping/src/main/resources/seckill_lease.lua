@@ -0,0 +1,22 @@
+-- 从一个秒杀库存key中扣减一批库存，或者归还没有用完的库存。
+-- 节点租借库存、分桶库存按用户扣减都使用该脚本，只访问KEYS[1]，分桶时每个桶可以在不同的redis分片上
+-- KEYS[1]：库存key，seckill:stock:{id} 或分桶的 seckill:stock:{id:桶序号}
+-- ARGV[1]：大于0时为希望扣减的数量，返回实际扣减的数量（库存不足时可能少于希望的数量，0表示库存已经为空）；
+--          小于0时为归还的数量
+local stockKey = KEYS[1]
+local count = tonumber(ARGV[1])
+
+-- 1.归还库存
+if (count < 0) then
+    redis.call('incrby', stockKey, -count)
+    return count
+end
+
+-- 2.扣减库存，库存不足时扣减剩下的全部
+local stock = tonumber(redis.call('get', stockKey) or '0')
+local taken = math.min(stock, count)
+if (taken <= 0) then
+    return 0
+end
+redis.call('incrby', stockKey, -taken)
+return taken
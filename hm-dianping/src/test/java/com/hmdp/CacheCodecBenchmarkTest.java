@@ -0,0 +1,101 @@
+package com.hmdp;
+
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.CacheCodecs;
+import com.hmdp.utils.CompactBinaryCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * 对比JSON与紧凑二进制两种缓存编码的体积和编解码耗时，不需要启动spring容器
+ */
+@Slf4j
+public class CacheCodecBenchmarkTest {
+
+    private static final int ROUNDS = 200000;
+
+    private Shop newShop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("102茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+
+    @Test
+    public void roundTrip() {
+        Shop shop = newShop();
+        RedisData entry = new RedisData();
+        entry.setData(shop);
+        entry.setExpireTime(LocalDateTime.now().plusMinutes(30).withNano(0));
+        entry.setDelta(35L);
+        CacheCodecs codecs = new CacheCodecs(new CacheProperties());
+        for (CacheCodec codec : new CacheCodec[]{new JsonCacheCodec(), new CompactBinaryCodec()}) {
+            RedisData decoded = codecs.decode(codec.encode(entry), Shop.class);
+            Assertions.assertEquals(shop, decoded.getData());
+            Assertions.assertEquals(entry.getExpireTime(), decoded.getExpireTime());
+            Assertions.assertEquals(entry.getDelta(), decoded.getDelta());
+        }
+    }
+
+    @Test
+    public void decodeMalformed() {
+        RedisData entry = new RedisData();
+        entry.setData(newShop());
+        for (CacheCodec codec : new CacheCodec[]{new JsonCacheCodec(), new CompactBinaryCodec()}) {
+            byte[] bytes = codec.encode(entry);
+            //被截断的数据按未命中处理，不抛出异常
+            byte[] truncated = Arrays.copyOf(bytes, bytes.length / 2);
+            Assertions.assertNull(codec.decode(truncated, Shop.class));
+            Assertions.assertNull(codec.decode(new byte[0], Shop.class));
+        }
+    }
+
+    @Test
+    @Disabled("压测，耗时较长，手动运行")
+    public void benchmark() {
+        RedisData entry = new RedisData();
+        entry.setData(newShop());
+        CacheCodec[] codecs = {new JsonCacheCodec(), new CompactBinaryCodec()};
+        for (CacheCodec codec : codecs) {
+            byte[] bytes = codec.encode(entry);
+            //预热
+            for (int i = 0; i < ROUNDS; i++) {
+                codec.decode(codec.encode(entry), Shop.class);
+            }
+            long begin = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                codec.encode(entry);
+            }
+            long encodeNs = (System.nanoTime() - begin) / ROUNDS;
+            begin = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                codec.decode(bytes, Shop.class);
+            }
+            long decodeNs = (System.nanoTime() - begin) / ROUNDS;
+            log.info("{}: {} bytes, encode {} ns/op, decode {} ns/op",
+                    codec.getClass().getSimpleName(), bytes.length, encodeNs, decodeNs);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.hmdp;
+
+import com.hmdp.config.CacheProperties;
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+/**
+ * 本地缓存中渲染结果与对象条目的一致性，不需要启动spring容器
+ */
+public class LocalCacheTest {
+
+    private static final String KEY = "cache:shop:1";
+
+    private final byte[] json = "{\"id\":1}".getBytes(StandardCharsets.UTF_8);
+
+    private LocalCache newLocalCache() {
+        //不调用@PostConstruct，不会订阅失效频道，因此不需要监听容器
+        return new LocalCache(new CacheProperties(), null);
+    }
+
+    @Test
+    void renderedFollowsObjectEntry() {
+        LocalCache localCache = newLocalCache();
+        Object value = new Object();
+        localCache.put(KEY, value, 60000);
+        localCache.putRendered(KEY, value, json);
+        Assertions.assertArrayEquals(json, localCache.getRendered(KEY));
+
+        localCache.invalidate(KEY);
+        Assertions.assertNull(localCache.getRendered(KEY));
+    }
+
+    @Test
+    void renderedExpiresWithObjectEntry() throws InterruptedException {
+        LocalCache localCache = newLocalCache();
+        Object value = new Object();
+        //对象条目的存活时间比本地缓存配置的短，例如热点key的副本
+        localCache.put(KEY, value, 50);
+        localCache.putRendered(KEY, value, json);
+        Assertions.assertArrayEquals(json, localCache.getRendered(KEY));
+
+        Thread.sleep(100);
+        Assertions.assertNull(localCache.get(KEY));
+        Assertions.assertNull(localCache.getRendered(KEY));
+    }
+
+    @Test
+    void renderedIgnoredAfterLogicalExpire() {
+        LocalCache localCache = newLocalCache();
+        Object value = new Object();
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.now().minusSeconds(1));
+        localCache.put(KEY, redisData, 60000);
+        localCache.putRendered(KEY, value, json);
+        //逻辑过期后不能直接返回渲染结果，调用方需要走一遍查询以触发重建
+        Assertions.assertNull(localCache.getRendered(KEY));
+    }
+
+    @Test
+    void renderedNotKeptForNullValue() {
+        LocalCache localCache = newLocalCache();
+        localCache.put(KEY, null, 60000);
+        Assertions.assertNull(localCache.getRendered(KEY));
+    }
+}
@@ -0,0 +1,166 @@
+package com.hmdp;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillStockLease;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_KEY;
+
+/**
+ * 对比秒杀下单的两种方式：每次下单都在redis中扣减库存，以及节点租借库存后在本地扣减。
+ * 需要连接开发环境的redis和数据库，手动运行；测试新增的秒杀券、订单和redis中的数据在结束后删除
+ */
+@Slf4j
+@Disabled("压测，需要开发环境的redis和数据库，手动运行")
+@SpringBootTest
+class SeckillLeaseBenchmarkTest {
+
+    private static final int THREADS = 16;
+
+    private static final int REQUESTS = 20000;
+
+    /**
+     * 等待消费者把订单写入数据库的最长时间
+     */
+    private static final long DRAIN_TIMEOUT_MILLIS = 60000;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillStockLease stockLease;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private Long newSeckillVoucher(int stock) {
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("秒杀压测券");
+        voucher.setPayValue(100L);
+        voucher.setActualValue(100L);
+        voucher.setType(1);
+        voucher.setStock(stock);
+        voucher.setBeginTime(LocalDateTime.now().minusMinutes(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    /**
+     * 每个请求使用不同的用户
+     * @return 成功下单的订单id
+     */
+    private Queue<Long> run(Long voucherId, long firstUserId) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch latch = new CountDownLatch(REQUESTS);
+        Queue<Long> orderIds = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            long userId = firstUserId + i;
+            executor.submit(() -> {
+                UserDTO user = new UserDTO();
+                user.setId(userId);
+                UserHolder.saveUser(user);
+                try {
+                    Result result = voucherOrderService.seckillVoucher(voucherId);
+                    if (result.getSuccess()) {
+                        orderIds.add((Long) result.getData());
+                    }
+                } finally {
+                    UserHolder.removeUser();
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        executor.shutdown();
+        return orderIds;
+    }
+
+    /**
+     * 等消费者写完订单后删除测试数据：订单、秒杀券、redis中的库存、已下单用户、秒杀时间和订单状态
+     */
+    private void cleanUp(Long voucherId, Queue<Long> orderIds) throws InterruptedException {
+        stockLease.giveBack(voucherId);
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        while (voucherOrderService.query().eq("voucher_id", voucherId).count() < orderIds.size()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(500);
+        }
+        voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+        seckillVoucherService.removeById(voucherId);
+        voucherService.removeById(voucherId);
+        List<String> keys = new ArrayList<>(Arrays.asList(
+                SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId, SECKILL_VOUCHER_KEY + voucherId));
+        for (Long orderId : orderIds) {
+            keys.add(SECKILL_ORDER_STATUS_KEY + orderId);
+        }
+        stringRedisTemplate.delete(keys);
+    }
+
+    private void benchmark(boolean lease) throws InterruptedException {
+        seckillProperties.getLease().setEnabled(lease);
+        //库存是请求数的一半，同时覆盖有库存和售罄之后两个阶段
+        Long warmup = newSeckillVoucher(REQUESTS / 2);
+        Long measured = newSeckillVoucher(REQUESTS / 2);
+        Queue<Long> warmupOrders = new ConcurrentLinkedQueue<>();
+        Queue<Long> measuredOrders = new ConcurrentLinkedQueue<>();
+        try {
+            //预热
+            warmupOrders = run(warmup, 1_000_000_000L);
+            long begin = System.nanoTime();
+            measuredOrders = run(measured, 2_000_000_000L);
+            long elapsedMs = (System.nanoTime() - begin) / 1_000_000;
+            Assertions.assertEquals(REQUESTS / 2, measuredOrders.size());
+            log.info("{}: {} 次请求，{} 单成功，耗时 {} ms，{} 次/秒", lease ? "库存租借" : "redis扣减", REQUESTS,
+                    measuredOrders.size(), elapsedMs, REQUESTS * 1000L / Math.max(1, elapsedMs));
+        } finally {
+            seckillProperties.getLease().setEnabled(false);
+            cleanUp(warmup, warmupOrders);
+            cleanUp(measured, measuredOrders);
+        }
+    }
+
+    @Test
+    void benchmark() throws InterruptedException {
+        benchmark(false);
+        benchmark(true);
+    }
+}